@@ -0,0 +1,318 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocation budget of the processor's instruction loop
+ *
+ * Runs a kernel program for every opcode, which repeats the opcode in a
+ * counted loop, and a few representative programs, and measures the bytes
+ * the thread allocates per executed instruction. Every program is run with
+ * a short and a long trip count and only the difference is counted, so the
+ * setup of a run (the processor, its events and metrics) doesn't count and
+ * what is left is the steady-state cost of the loop. A kernel above the
+ * budget names the opcode that allocates. READ and WRITE convert between
+ * text and words, so they have their own budget. BRANCH and HALT are part
+ * of every kernel, and SPAWN has none, since it starts a thread for every
+ * core, which allocates by design and isn't a cost of the loop.
+ *
+ * Usage: java SmpAllocationCheck [--budget bytes] [--io-budget bytes] [--repeat n]
+ */
+public class SmpAllocationCheck {
+    // Loop iterations of the short and of the long run
+    private static final int SHORT_RUN = 1_000;
+    private static final int LONG_RUN = 21_000;
+    // Number of times the opcode is repeated in the loop of a kernel
+    private static final int KERNEL_WIDTH = 16;
+    // Runs of every program before it's measured, so the loop is compiled by the JIT
+    private static final int WARMUP = 30;
+
+    // Bytes per instruction allowed to the programs without READ and WRITE
+    private double budget = 0.01;
+    // Bytes per instruction allowed to READ and WRITE
+    private double ioBudget = 128;
+    // Measurements of every program, the lowest one is kept
+    private int repeat = 5;
+    // Output of the WRITE instructions
+    private final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * Measurement of one program
+     */
+    static class SmpAllocationResult {
+        public String name;
+        public boolean io;
+        public double bytesPerInstruction;
+        public long instructions;
+        public double budget;
+
+        // Flag if the program allocates more than its budget, or didn't run (NaN)
+        public boolean isOverBudget() {
+            return !(bytesPerInstruction <= budget);
+        }
+    }
+
+    /**
+     * Input of the READ kernel, an endless "1" per line that allocates nothing itself
+     */
+    static class SmpAllocationInput extends Reader {
+        private long position = 0;
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            for (int i = 0; i < length; i++, position++) {
+                buffer[offset + i] = position % 2 == 0 ? '1' : '\n';
+            }
+
+            return length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Measure every kernel and representative program
+     *
+     * @return results, the kernels first
+     * @throws SmpCompileException If a program doesn't compile
+     */
+    public List<SmpAllocationResult> measure() throws SmpCompileException {
+        List<SmpAllocationResult> results = new ArrayList<SmpAllocationResult>();
+
+        // Kernels of the opcodes, the loop alone is the baseline
+        results.add(measure("(loop)", kernel(""), false));
+        results.add(measure("READ", kernel("READ X"), true));
+        results.add(measure("WRITE", kernel("WRITE X"), true));
+        results.add(measure("LOAD", kernel("LOAD X"), false));
+        results.add(measure("STORE", kernel("STORE X"), false));
+        results.add(measure("LOADI", kernel("LOADI P"), false));
+        results.add(measure("STOREI", kernel("STOREI P"), false));
+        results.add(measure("INDEX", kernel("INDEX ONE"), false));
+        results.add(measure("LOADX", kernel("LOADX X"), false));
+        results.add(measure("STOREX", kernel("STOREX T"), false));
+        results.add(measure("ADD", kernel("ADD X"), false));
+        results.add(measure("SUBTRACT", kernel("SUBTRACT X"), false));
+        results.add(measure("MULTIPLY", kernel("MULTIPLY ONE"), false));
+        results.add(measure("DIVIDE", kernel("DIVIDE ONE"), false));
+        results.add(measure("MODULO", kernel("MODULO BIG"), false));
+        results.add(measure("BRANCHNEG", kernel("BRANCHNEG @done"), false));
+        results.add(measure("BRANCHZERO", kernel("BRANCHZERO @done"), false));
+        results.add(measure("FETCHADD", kernel("FETCHADD T"), false));
+        results.add(measure("LOADLINK/CAS", kernel("LOADLINK X\nCAS X"), false));
+        results.add(measure("FENCE", kernel("FENCE"), false));
+
+        // Representative programs
+        results.add(measure("while/if", "N = %d\nI = 0\nS = 0\n"
+                + "WHILE I < N\n    IF S < 1000\n        S = S + I\n    ELSE\n        S = S - 1000\n    END\n    I = I + 1\nEND\n", false));
+        results.add(measure("countdown", "N = %d\nS = 0\n"
+                + "@loop\nLOAD N\nBRANCHZERO @done\nS = S + N * 3 / 2 % 7\nN = N - 1\nBRANCH @loop\n@done\n", false));
+        results.add(measure("unrolled", "N = %d\nI = 0\nS = 0\nWHILE I < N\n    S = S + 3\n    I = I + 1\nEND\n", false));
+
+        return results;
+    }
+
+    /**
+     * Get the source of a kernel that repeats an instruction in a counted loop
+     *
+     * @param instruction The instruction lines
+     * @return source with a %d for the trip count
+     */
+    private static String kernel(String instruction) {
+        StringBuilder source = new StringBuilder("N = %d\nX = 7\nT = 0\nP = 0\nONE = 1\nBIG = 1000\n@loop\nLOAD X\n");
+
+        for (int i = 0; i < KERNEL_WIDTH && !instruction.isEmpty(); i++) {
+            source.append(instruction).append('\n');
+        }
+
+        // The accumulator is X > 0 at the top, the branches of the kernels aren't taken
+        source.append("LOAD N\nSUBTRACT ONE\nSTORE N\nBRANCHZERO @done\nBRANCH @loop\n@done\n");
+        return source.toString();
+    }
+
+    /**
+     * Measure the bytes per instruction of a program
+     *
+     * @param name Name of the program
+     * @param source Source with a %d for the trip count
+     * @param io Whether the program reads or writes
+     * @return result
+     * @throws SmpCompileException If the program doesn't compile
+     */
+    private SmpAllocationResult measure(String name, String source, boolean io) throws SmpCompileException {
+        SmpProgram shortProgram = compile(source.replace("%d", String.valueOf(SHORT_RUN)));
+        SmpProgram longProgram = compile(source.replace("%d", String.valueOf(LONG_RUN)));
+        SmpAllocationResult result = new SmpAllocationResult();
+
+        result.name = name;
+        result.io = io;
+        result.budget = io ? ioBudget : budget;
+        result.bytesPerInstruction = Double.MAX_VALUE;
+
+        for (int i = 0; i < WARMUP; i++) {
+            run(shortProgram);
+        }
+
+        // Keep the lowest, a GC or JIT compilation during a run only adds
+        for (int i = 0; i < repeat; i++) {
+            long[] shortRun = run(shortProgram);
+            long[] longRun = run(longProgram);
+
+            result.instructions = longRun[1] - shortRun[1];
+            result.bytesPerInstruction = Math.min(result.bytesPerInstruction, Math.max(0, (double) (longRun[0] - shortRun[0]) / result.instructions));
+        }
+
+        // A kernel that stops before its loop measures nothing
+        if (result.instructions <= 0) {
+            result.bytesPerInstruction = Double.NaN;
+        }
+
+        return result;
+    }
+
+    /**
+     * Compile a program without running it at compile time, the kernels read no input.
+     * The pointers of LOADI and STOREI point to the variable the first LOAD
+     * reads, X in the kernels, which holds the accumulator a STOREI stores.
+     *
+     * @param source The source
+     * @return program image
+     * @throws SmpCompileException If the program doesn't compile
+     */
+    private static SmpProgram compile(String source) throws SmpCompileException {
+        SmpCompiler compiler = new SmpCompiler();
+        compiler.setEvaluationLimit(0);
+
+        try {
+            compiler.load(new StringReader(source), "<kernel>");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        int[] words = compiler.compileProgram().getWords();
+        int loaded = -1;
+
+        for (int word : words) {
+            // Address read by the first LOAD
+            if (word / 100 == 20 && loaded < 0) {
+                loaded = word % 100;
+            }
+
+            // Pointer of a LOADI or STOREI
+            if ((word / 100 == 22 || word / 100 == 23) && loaded >= 0) {
+                words[word % 100] = loaded;
+            }
+        }
+
+        return new SmpProgram(words);
+    }
+
+    /**
+     * Run a program and measure what it allocates
+     *
+     * @param program The program
+     * @return allocated bytes and executed instructions
+     */
+    private long[] run(SmpProgram program) {
+        SmpProcessor processor = new SmpProcessor(program);
+        processor.setTrace(false);
+        processor.setOutput(discard);
+        processor.setInput(new BufferedReader(new SmpAllocationInput()));
+
+        long allocated = getAllocatedBytes();
+        processor.execute();
+        allocated = getAllocatedBytes() - allocated;
+
+        return new long[] { allocated, processor.getCycles() };
+    }
+
+    /**
+     * Print the results as a table
+     *
+     * @param results The results
+     */
+    public static void printReport(List<SmpAllocationResult> results) {
+        System.out.printf("%-14s %14s %14s %10s  %s%n", "program", "instructions", "bytes/insn", "budget", "result");
+
+        for (SmpAllocationResult result : results) {
+            System.out.printf("%-14s %14d %14.3f %10.3f  %s%n", result.name, result.instructions, result.bytesPerInstruction,
+                    result.budget, result.isOverBudget() ? "OVER BUDGET" : "ok");
+        }
+    }
+
+    /**
+     * Get the bytes allocated by the current thread
+     *
+     * @return bytes, or 0 if the JVM doesn't track them
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Main program, exits with 1 if a program allocates more than its budget
+     *
+     * @param args Options
+     */
+    public static void main(String[] args) {
+        SmpAllocationCheck check = new SmpAllocationCheck();
+
+        // Parse the options
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--budget": check.budget = Double.parseDouble(args[i + 1]); break;
+                case "--io-budget": check.ioBudget = Double.parseDouble(args[i + 1]); break;
+                case "--repeat": check.repeat = Math.max(1, Integer.parseInt(args[i + 1])); break;
+                default:
+                    SmpCompiler.printError("unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        // Without the counter every run would pass
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (!(threads instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()) {
+            SmpCompiler.printError("the JVM doesn't count the allocated bytes of a thread");
+            System.exit(1);
+        }
+
+        try {
+            List<SmpAllocationResult> results = check.measure();
+            printReport(results);
+
+            // Name the opcodes that allocate
+            int over = 0;
+
+            for (SmpAllocationResult result : results) {
+                if (result.isOverBudget()) {
+                    System.out.printf("over budget: %s allocates %.3f bytes per instruction, budget %.3f%n",
+                            result.name, result.bytesPerInstruction, result.budget);
+                    over++;
+                }
+            }
+
+            if (over > 0) {
+                System.exit(1);
+            }
+        } catch (SmpCompileException e) {
+            SmpCompiler.printError("kernel doesn't compile: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight-line run of instructions that is only entered at its first
+ * instruction and only left after its last one
+ */
+class SmpBasicBlock {
+    public int start;
+    public int end;
+    public boolean reachable = false;
+    public List<SmpBasicBlock> successors = new ArrayList<SmpBasicBlock>();
+    public List<SmpBasicBlock> predecessors = new ArrayList<SmpBasicBlock>();
+
+    public SmpBasicBlock(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Result of compiling a single file in a batch
+ */
+class SmpBatchResult {
+    public String filename;
+    public boolean success;
+    public String message;
+    public int lines;
+    public long time;
+
+    public SmpBatchResult(String filename, boolean success, String message, int lines, long time) {
+        this.filename = filename;
+        this.success = success;
+        this.message = message;
+        this.lines = lines;
+        this.time = time;
+    }
+}
+
+/**
+ * Batch compiler that compiles every .smp file of a directory tree in parallel
+ */
+public class SmpBatchCompiler {
+    // Input extension name
+    private final String INPUT_FILE_EXT = ".smp";
+    // Number of worker threads
+    private final int threads;
+    // One reusable compiler per worker thread
+    private final ThreadLocal<SmpCompiler> compilers = ThreadLocal.withInitial(SmpCompiler::new);
+
+    /**
+     * Initialize the batch compiler with one worker per available core
+     */
+    public SmpBatchCompiler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initialize the batch compiler with the specified number of workers
+     *
+     * @param threads Number of worker threads
+     */
+    public SmpBatchCompiler(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Compile every .smp file under the specified directory
+     *
+     * @param root Root directory
+     * @return results sorted by file name
+     * @throws IOException If the directory can't be walked
+     * @throws InterruptedException If interrupted while waiting for the workers
+     */
+    public List<SmpBatchResult> compile(Path root) throws IOException, InterruptedException {
+        // Collect the input files
+        List<Path> files;
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream
+                .filter(Files::isRegularFile)
+                .filter(p -> p.getFileName().toString().endsWith(INPUT_FILE_EXT))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        // Submit one task per file
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<SmpBatchResult>> futures = new ArrayList<Future<SmpBatchResult>>();
+
+        try {
+            for (Path file : files) {
+                futures.add(pool.submit(compileTask(file.toString())));
+            }
+
+            // Collect the results in submission order
+            List<SmpBatchResult> results = new ArrayList<SmpBatchResult>();
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // Tasks never throw, but don't lose the file if one does
+                    results.add(new SmpBatchResult(files.get(i).toString(), false, String.valueOf(e.getCause()), 0, 0));
+                }
+            }
+
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Create a task that compiles a single file without ever throwing
+     *
+     * @param filename Input filename
+     * @return task
+     */
+    private Callable<SmpBatchResult> compileTask(String filename) {
+        return () -> {
+            // Get this worker's compiler
+            SmpCompiler compiler = compilers.get();
+            long start = System.nanoTime();
+
+            try {
+                compiler.setQuiet(true);
+                compiler.load(filename);
+                compiler.compile();
+
+                return new SmpBatchResult(filename, true, compiler.getOutputFilename(), compiler.getOutputSize(), elapsed(start));
+            } catch (SmpCompileException e) {
+                return new SmpBatchResult(filename, false, e.getMessage(), 0, elapsed(start));
+            } catch (Exception e) {
+                return new SmpBatchResult(filename, false, "internal error " + e, 0, elapsed(start));
+            }
+        };
+    }
+
+    /**
+     * Get the elapsed time in milliseconds
+     *
+     * @param start Start time in nanoseconds
+     * @return milliseconds
+     */
+    private static long elapsed(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Print the summary report of a batch
+     *
+     * @param results Batch results
+     * @param wallTime Total time in milliseconds
+     */
+    public void printReport(List<SmpBatchResult> results, long wallTime) {
+        int failed = 0;
+        long lines = 0;
+
+        line();
+
+        // Print every file
+        for (SmpBatchResult r : results) {
+            if (r.success) {
+                lines += r.lines;
+                System.out.println("OK    " + r.filename + " (" + r.lines + " lines, " + r.time + " ms)");
+            } else {
+                failed++;
+                System.out.println("FAIL  " + r.filename + ": " + r.message);
+            }
+        }
+
+        // Print the totals
+        line();
+        System.out.println("Files compiled   : " + (results.size() - failed) + "/" + results.size());
+        System.out.println("Files failed     : " + failed);
+        System.out.println("Number of lines  : " + lines);
+        System.out.println("Worker threads   : " + threads);
+        System.out.println("Compilation time : " + wallTime + " ms");
+        line();
+    }
+
+    /**
+     * Print a line
+     */
+    private static void line() {
+        System.out.println("------------------------------------------");
+    }
+
+    /**
+     * Batch compiler entry point
+     *
+     * @param args Root directory and optional number of threads
+     * @throws Exception If an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        // Check if args have values
+        if (args.length == 0) {
+            SmpCompiler.printError("no input directory specified.");
+            System.exit(1);
+        }
+
+        // Get the number of threads
+        SmpBatchCompiler batch = args.length > 1 && args[1].matches("\\d+")
+            ? new SmpBatchCompiler(Integer.parseInt(args[1]))
+            : new SmpBatchCompiler();
+
+        // Compile the tree
+        long start = System.nanoTime();
+        List<SmpBatchResult> results = batch.compile(Paths.get(args[0]));
+        batch.printReport(results, elapsed(start));
+
+        // Exit with failure if any file didn't compile
+        for (SmpBatchResult r : results) {
+            if (!r.success) {
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scaling benchmark of the compiler and the processor on generated programs
+ *
+ * Compiles programs from {@link SmpGenerator} of 10 up to 1,000,000 lines and
+ * prints the time and allocated memory of every size, with the growth
+ * exponent between sizes (1 is linear, 2 is quadratic). Programs that fit in
+ * memory are also run. The results can be saved as CSV and compared with a
+ * saved baseline to catch regressions.
+ *
+ * Usage: java SmpBenchmark [--seed n] [--max lines] [--repeat n] [--budget seconds]
+ *                          [--csv file] [--baseline file] [--tolerance factor]
+ */
+public class SmpBenchmark {
+    // Width of the plot bars
+    private static final int PLOT_WIDTH = 40;
+    // Maximum number of instructions of a run
+    private static final long CYCLE_LIMIT = 10_000_000;
+
+    // Seed of the generated programs
+    private long seed = 1;
+    // Largest program size in lines
+    private int max = 1_000_000;
+    // Number of timed compilations of every size, the best one is kept
+    private int repeat = 3;
+    // Time after which no larger size is measured, in seconds
+    private long budget = 60;
+
+    /**
+     * Measurement of one program size
+     */
+    static class SmpBenchmarkResult {
+        public int size;
+        public int lines;
+        public long compileNanos;
+        public long allocatedBytes;
+        public int words;
+        public long runNanos = -1;
+        public long cycles = -1;
+    }
+
+    /**
+     * Measure every size
+     *
+     * @return results by increasing size
+     * @throws SmpCompileException If a generated program doesn't compile
+     */
+    public List<SmpBenchmarkResult> measure() throws SmpCompileException {
+        List<SmpBenchmarkResult> results = new ArrayList<SmpBenchmarkResult>();
+
+        // Warm up the JIT so the small sizes aren't measured interpreted
+        for (int i = 0; i < 20; i++) {
+            measure(10 + i % 3 * 20);
+            measure(1000);
+        }
+
+        // Sizes of 1, 3 and 10 times every power of ten
+        for (long size = 10; size <= max; size = size % 3 == 0 ? size * 10 / 3 : size * 3) {
+            SmpBenchmarkResult result = measure((int) size);
+            results.add(result);
+
+            // Stop before the sizes get too slow
+            if (result.compileNanos / 1_000_000_000L >= budget) {
+                break;
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Measure one size
+     *
+     * @param size Program size in lines
+     * @return result
+     * @throws SmpCompileException If the generated program doesn't compile
+     */
+    private SmpBenchmarkResult measure(int size) throws SmpCompileException {
+        SmpBenchmarkResult result = new SmpBenchmarkResult();
+        List<String> program = new SmpGenerator(seed + size).generate(size);
+        String source = String.join("\n", program);
+        SmpProgram image = null;
+
+        result.size = size;
+        result.lines = program.size();
+        result.compileNanos = Long.MAX_VALUE;
+
+        // Keep the best of the compilations, the first one also warms up
+        for (int i = 0; i < repeat; i++) {
+            long allocated = getAllocatedBytes();
+            long started = System.nanoTime();
+            image = compile(source);
+            long elapsed = System.nanoTime() - started;
+
+            result.compileNanos = Math.min(result.compileNanos, elapsed);
+            result.allocatedBytes = getAllocatedBytes() - allocated;
+        }
+
+        result.words = image.size();
+
+        // Run the program if it fits in memory
+        if (image.size() <= SmpMemory.DEFAULT_SIZE) {
+            SmpProcessor processor = new SmpProcessor(image);
+            processor.setTrace(false);
+            processor.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+            processor.setCycleLimit(CYCLE_LIMIT);
+
+            long started = System.nanoTime();
+            processor.execute();
+            result.runNanos = System.nanoTime() - started;
+            result.cycles = processor.getCycles();
+        }
+
+        return result;
+    }
+
+    /**
+     * Print the results as a table with a log-scale plot of the compile time
+     *
+     * @param results The results
+     */
+    public static void printReport(List<SmpBenchmarkResult> results) {
+        // Longest compile time, to scale the plot
+        double longest = 1;
+
+        for (SmpBenchmarkResult result : results) {
+            longest = Math.max(longest, result.compileNanos);
+        }
+
+        System.out.printf("%9s %12s %8s %12s %8s %12s  %s%n", "lines", "compile ms", "growth", "alloc KB", "words", "run ns/insn", "compile time (log)");
+
+        for (int i = 0; i < results.size(); i++) {
+            SmpBenchmarkResult result = results.get(i);
+            String growth = "";
+
+            // Exponent of the growth since the previous size
+            if (i > 0) {
+                SmpBenchmarkResult previous = results.get(i - 1);
+                double exponent = Math.log((double) result.compileNanos / previous.compileNanos) / Math.log((double) result.lines / previous.lines);
+                growth = String.format("n^%.2f", exponent);
+            }
+
+            String run = result.cycles > 0 ? String.format("%.1f", (double) result.runNanos / result.cycles) : "-";
+            // Bar length on a log scale from 1 microsecond to the longest time
+            double scale = Math.log10(longest / 1000);
+            int bar = scale <= 0 ? 0 : (int) Math.max(0, Math.round(PLOT_WIDTH * Math.log10(Math.max(1, result.compileNanos / 1000.0)) / scale));
+
+            System.out.printf("%9d %12.3f %8s %12d %8d %12s  %s%n", result.lines, result.compileNanos / 1e6, growth, result.allocatedBytes / 1024, result.words, run, "#".repeat(bar));
+        }
+    }
+
+    /**
+     * Save the results as CSV
+     *
+     * @param results The results
+     * @param filename The output file
+     * @throws IOException If the file can't be written
+     */
+    public static void writeCsv(List<SmpBenchmarkResult> results, String filename) throws IOException {
+        List<String> rows = new ArrayList<String>();
+        rows.add("size,lines,compile_ns,allocated_bytes,words,run_ns,cycles");
+
+        for (SmpBenchmarkResult r : results) {
+            rows.add(r.size + "," + r.lines + "," + r.compileNanos + "," + r.allocatedBytes + "," + r.words + "," + r.runNanos + "," + r.cycles);
+        }
+
+        Files.write(Paths.get(filename), rows);
+    }
+
+    /**
+     * Compare the compile times with a baseline saved by writeCsv
+     *
+     * @param results The results
+     * @param filename The baseline file
+     * @param tolerance Slowdown factor that is still accepted
+     * @return number of sizes slower than the tolerance
+     * @throws IOException If the file can't be read
+     */
+    public static int compare(List<SmpBenchmarkResult> results, String filename, double tolerance) throws IOException {
+        // Baseline compile time of every size
+        Map<Integer, Long> baseline = new HashMap<Integer, Long>();
+
+        for (String row : Files.readAllLines(Paths.get(filename))) {
+            String[] columns = row.split(",");
+
+            if (columns.length > 2 && columns[0].matches("\\d+")) {
+                baseline.put(Integer.parseInt(columns[0]), Long.parseLong(columns[2]));
+            }
+        }
+
+        int regressions = 0;
+
+        for (SmpBenchmarkResult result : results) {
+            Long before = baseline.get(result.size);
+
+            if (before != null && result.compileNanos > before * tolerance) {
+                System.out.printf("regression: %d lines compile in %.3f ms, baseline %.3f ms%n", result.lines, result.compileNanos / 1e6, before / 1e6);
+                regressions++;
+            }
+        }
+
+        return regressions;
+    }
+
+    /**
+     * Compile a program without running it at compile time, the generated
+     * programs read no input and would be reduced to their output
+     *
+     * @param source The source
+     * @return program image
+     * @throws SmpCompileException If the program doesn't compile
+     */
+    private static SmpProgram compile(String source) throws SmpCompileException {
+        SmpCompiler compiler = new SmpCompiler();
+        compiler.setEvaluationLimit(0);
+
+        try {
+            compiler.load(new StringReader(source), "<generated>");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return compiler.compileProgram();
+    }
+
+    /**
+     * Get the bytes allocated by the current thread
+     *
+     * @return bytes, or 0 if the JVM doesn't track them
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Run the benchmark
+     *
+     * @param args The arguments
+     */
+    public static void main(String[] args) {
+        SmpBenchmark benchmark = new SmpBenchmark();
+        String csv = null;
+        String baseline = null;
+        double tolerance = 1.5;
+
+        // Parse the options
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--seed": benchmark.seed = Long.parseLong(args[i + 1]); break;
+                case "--max": benchmark.max = Integer.parseInt(args[i + 1]); break;
+                case "--repeat": benchmark.repeat = Math.max(1, Integer.parseInt(args[i + 1])); break;
+                case "--budget": benchmark.budget = Long.parseLong(args[i + 1]); break;
+                case "--csv": csv = args[i + 1]; break;
+                case "--baseline": baseline = args[i + 1]; break;
+                case "--tolerance": tolerance = Double.parseDouble(args[i + 1]); break;
+                default:
+                    SmpCompiler.printError("unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        try {
+            List<SmpBenchmarkResult> results = benchmark.measure();
+            printReport(results);
+
+            if (csv != null) {
+                writeCsv(results, csv);
+            }
+
+            // Fail if slower than the baseline
+            if (baseline != null && compare(results, baseline, tolerance) > 0) {
+                System.exit(1);
+            }
+        } catch (SmpCompileException e) {
+            SmpCompiler.printError("generated program doesn't compile: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            SmpCompiler.printError(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
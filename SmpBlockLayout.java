@@ -0,0 +1,379 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A basic block of the layout, with the way it's left. A branch on zero
+ * right after a branch on negative to the same target (or the other way
+ * around) is part of the same block.
+ */
+class SmpLayoutBlock {
+    public int start;
+    public int end;
+    // Block a BRANCH or the conditional branches go to, -1 if none
+    public int target = -1;
+    // Block the last instruction falls through to, -1 if none
+    public int next = -1;
+    // Executions of the edges to the target and to the next block
+    public long taken;
+    public long fallen;
+    // Flag if the block ends with a branch on negative and a branch on zero
+    public boolean pair = false;
+    // Flag if the conditional branches can be inverted to fall through to the target
+    public boolean invertible = false;
+
+    public SmpLayoutBlock(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+}
+
+/**
+ * An edge of the layout that becomes a fall-through if its blocks are
+ * placed one after the other
+ */
+class SmpLayoutEdge {
+    public int from;
+    public int to;
+    public long weight;
+    // Flag if the edge already falls through, kept on ties
+    public boolean fallThrough;
+
+    public SmpLayoutEdge(int from, int to, long weight, boolean fallThrough) {
+        this.from = from;
+        this.to = to;
+        this.weight = weight;
+        this.fallThrough = fallThrough;
+    }
+}
+
+/**
+ * Profile-guided layout of the basic blocks of the compiled instructions
+ *
+ * Every branch executes as one instruction whether it's taken or not, so
+ * what a layout saves is the BRANCH of a block whose target is placed right
+ * after it. The blocks are joined into chains along the edges that save
+ * the most instructions of the profiled run when they fall through, the
+ * way Pettis-Hansen joins the most executed edges, and the chains are placed in their code order, so the
+ * code that never ran keeps its place. A block whose next block is placed
+ * elsewhere gets a BRANCH to it. The pair of branches of a "less or equal"
+ * test (LOAD A, SUBTRACT B, BRANCHNEG, BRANCHZERO) is inverted into a single
+ * BRANCHNEG of B - A when its target is placed next, a single BRANCHNEG or
+ * BRANCHZERO has no inverse in a single instruction.
+ */
+class SmpBlockLayout {
+    // Opcodes of the instructions the layout looks at or emits
+    private static final int LOAD = 20;
+    private static final int SUBTRACT = 31;
+    private static final int BRANCH = 40;
+    private static final int BRANCHNEG = 41;
+
+    // Instructions whose labels point to instruction indexes
+    private final List<SmpInstruction> code;
+    // Profile of the same instructions
+    private final SmpProfile profile;
+    // Blocks in code order
+    private final List<SmpLayoutBlock> blocks = new ArrayList<SmpLayoutBlock>();
+    // Block of every instruction that starts one, -1 for the others
+    private int[] blockAt;
+
+    /**
+     * Initialize the layout
+     *
+     * @param code Instructions whose labels point to instruction indexes
+     * @param profile Profile of the program compiled from the same instructions
+     */
+    public SmpBlockLayout(List<SmpInstruction> code, SmpProfile profile) {
+        this.code = code;
+        this.profile = profile;
+    }
+
+    /**
+     * Check if the profile was recorded from the same instructions
+     *
+     * @return boolean
+     */
+    public boolean matches() {
+        if (profile.size() < code.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < code.size(); i++) {
+            if (profile.getWord(i) / 100 != code.get(i).opcode) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Place the blocks so the most executed successors fall through
+     *
+     * @return number of instructions the profiled run would not have executed
+     */
+    public long apply() {
+        buildBlocks();
+
+        int size = blocks.size();
+        // Chains of blocks, every block starts in its own chain
+        int[] after = new int[size];
+        int[] before = new int[size];
+        int[] chain = new int[size];
+
+        for (int b = 0; b < size; b++) {
+            after[b] = -1;
+            before[b] = -1;
+            chain[b] = b;
+        }
+
+        // Join the chains along the heaviest edges, the entry block always stays first
+        for (SmpLayoutEdge edge : getEdges()) {
+            if (after[edge.from] == -1 && before[edge.to] == -1 && edge.to != 0
+                    && find(chain, edge.from) != find(chain, edge.to)) {
+                after[edge.from] = edge.to;
+                before[edge.to] = edge.from;
+                chain[find(chain, edge.to)] = find(chain, edge.from);
+            }
+        }
+
+        // Place the chains in the code order of their first block
+        List<Integer> order = new ArrayList<Integer>();
+
+        for (int b = 0; b < size; b++) {
+            for (int n = before[b] == -1 ? b : -1; n != -1; n = after[n]) {
+                order.add(n);
+            }
+        }
+
+        return emit(order);
+    }
+
+    /**
+     * Split the instructions into blocks and weigh their edges with the profile
+     */
+    private void buildBlocks() {
+        SmpFlowGraph graph = new SmpFlowGraph(code);
+        Set<Integer> targets = new HashSet<Integer>();
+        blockAt = new int[code.size() + 1];
+        Arrays.fill(blockAt, -1);
+
+        for (SmpInstruction instruction : code) {
+            if (instruction.label != null) {
+                targets.add(instruction.label.index);
+            }
+        }
+
+        for (SmpBasicBlock basic : graph.blocks) {
+            SmpLayoutBlock last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+            SmpInstruction branch = code.get(basic.start);
+
+            // A second branch to the same target, only reached from the first one
+            if (last != null && !last.pair && basic.end == basic.start + 1 && branch.isConditional() && !targets.contains(basic.start)
+                    && code.get(last.end - 1).isConditional() && code.get(last.end - 1).label == branch.label
+                    && code.get(last.end - 1).opcode != branch.opcode) {
+                last.end = basic.end;
+                last.pair = true;
+                continue;
+            }
+
+            blockAt[basic.start] = blocks.size();
+            blocks.add(new SmpLayoutBlock(basic.start, basic.end));
+        }
+
+        for (SmpLayoutBlock block : blocks) {
+            int last = block.end - 1;
+            SmpInstruction instruction = code.get(last);
+
+            // Branch target, the taken edge of a pair is taken by either branch
+            if (instruction.label != null && instruction.label.index >= 0 && instruction.label.index < code.size()) {
+                block.target = blockAt[instruction.label.index];
+                block.taken = profile.getTaken(last) + (block.pair ? profile.getTaken(last - 1) : 0);
+            }
+
+            // Next block
+            if (!instruction.isUnconditional() && block.end < code.size()) {
+                block.next = blockAt[block.end];
+                block.fallen = profile.getCount(last) - profile.getTaken(last);
+            }
+        }
+
+        for (SmpLayoutBlock block : blocks) {
+            block.invertible = isInvertible(block);
+        }
+    }
+
+    /**
+     * Get the edges that can fall through, weighed by the instructions they save, heaviest first
+     *
+     * @return edges
+     */
+    private List<SmpLayoutEdge> getEdges() {
+        List<SmpLayoutEdge> edges = new ArrayList<SmpLayoutEdge>();
+
+        for (int b = 0; b < blocks.size(); b++) {
+            SmpLayoutBlock block = blocks.get(b);
+            SmpInstruction last = code.get(block.end - 1);
+
+            if (block.next != -1) {
+                edges.add(new SmpLayoutEdge(b, block.next, block.fallen, true));
+            }
+
+            // The target of a BRANCH can fall through, saving the BRANCH
+            if (block.target != -1 && last.opcode == BRANCH) {
+                edges.add(new SmpLayoutEdge(b, block.target, block.taken, false));
+            }
+
+            // The target of inverted branches can fall through, saving the runs of the second branch
+            if (block.target != -1 && block.invertible) {
+                edges.add(new SmpLayoutEdge(b, block.target, profile.getCount(block.end - 1), false));
+            }
+        }
+
+        // Heaviest first, existing fall-throughs first on ties
+        edges.sort((x, y) -> x.weight != y.weight ? Long.compare(y.weight, x.weight) : Boolean.compare(y.fallThrough, x.fallThrough));
+        return edges;
+    }
+
+    /**
+     * Lay out the instructions of the blocks in order
+     *
+     * @param order Blocks in their new order
+     * @return number of instructions the profiled run would not have executed
+     */
+    private long emit(List<Integer> order) {
+        List<SmpInstruction> laid = new ArrayList<SmpInstruction>();
+        // New index of every block
+        int[] index = new int[blocks.size()];
+        // Labels of the blocks that are branched to by the layout
+        SmpLabel[] labels = new SmpLabel[blocks.size()];
+        // Labels of the instructions, before they move
+        Set<SmpLabel> moved = new HashSet<SmpLabel>();
+        long saved = 0;
+
+        for (SmpInstruction instruction : code) {
+            if (instruction.label != null && instruction.label.index >= 0) {
+                moved.add(instruction.label);
+            }
+        }
+
+        for (int n = 0; n < order.size(); n++) {
+            int b = order.get(n);
+            int following = n + 1 < order.size() ? order.get(n + 1) : -1;
+            SmpLayoutBlock block = blocks.get(b);
+            SmpInstruction last = code.get(block.end - 1);
+            index[b] = laid.size();
+
+            if (last.opcode == BRANCH && block.target == following) {
+                // The BRANCH lands on the next instruction
+                laid.addAll(code.subList(block.start, block.end - 1));
+                saved += block.taken;
+            } else if (block.invertible && block.target == following && block.next != following) {
+                // Branch to the next block if B - A < 0, fall through to the target otherwise
+                laid.addAll(code.subList(block.start, block.end - 4));
+                laid.add(new SmpInstruction(LOAD, code.get(block.end - 3).variable, null));
+                laid.add(new SmpInstruction(SUBTRACT, code.get(block.end - 4).variable, null));
+                laid.add(new SmpInstruction(BRANCHNEG, null, getLabel(labels, block.next)));
+                saved += profile.getCount(block.end - 1);
+            } else {
+                laid.addAll(code.subList(block.start, block.end));
+
+                // Jump to the next block placed elsewhere
+                if (block.next != -1 && block.next != following) {
+                    laid.add(new SmpInstruction(BRANCH, null, getLabel(labels, block.next)));
+                    saved -= block.fallen;
+                }
+            }
+        }
+
+        // Move the labels to the new index of their block
+        for (SmpLabel label : moved) {
+            if (label.index < code.size() && blockAt[label.index] >= 0) {
+                label.index = index[blockAt[label.index]];
+            }
+        }
+
+        for (int b = 0; b < blocks.size(); b++) {
+            if (labels[b] != null) {
+                labels[b].index = index[b];
+            }
+        }
+
+        code.clear();
+        code.addAll(laid);
+        return saved;
+    }
+
+    /**
+     * Check if the block ends with a "less or equal" test whose successors
+     * don't read the accumulator the test leaves
+     *
+     * @param block The block
+     * @return boolean
+     */
+    private boolean isInvertible(SmpLayoutBlock block) {
+        if (!block.pair || block.end - block.start < 4 || block.next == -1 || block.target == -1) {
+            return false;
+        }
+
+        SmpInstruction load = code.get(block.end - 4);
+        SmpInstruction subtract = code.get(block.end - 3);
+
+        return load.opcode == LOAD && subtract.opcode == SUBTRACT && isAccumulatorDead(blocks.get(block.target)) && isAccumulatorDead(blocks.get(block.next));
+    }
+
+    /**
+     * Check if the block loads the accumulator before it reads it
+     *
+     * @param block The block
+     * @return boolean
+     */
+    private boolean isAccumulatorDead(SmpLayoutBlock block) {
+        for (int i = block.start; i < block.end; i++) {
+            SmpInstruction instruction = code.get(i);
+
+            if (instruction.readsAccumulator()) {
+                return false;
+            }
+
+            if (instruction.loadsAccumulator() || instruction.isHalt()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the label of a block, creating it on first use
+     *
+     * @param labels Labels of the blocks
+     * @param b Block index
+     * @return label
+     */
+    private static SmpLabel getLabel(SmpLabel[] labels, int b) {
+        if (labels[b] == null) {
+            labels[b] = new SmpLabel("block");
+        }
+
+        return labels[b];
+    }
+
+    /**
+     * Find the first block of a chain
+     *
+     * @param chain Parent of every block in its chain
+     * @param b Block index
+     * @return representative block of the chain
+     */
+    private static int find(int[] chain, int b) {
+        while (chain[b] != b) {
+            chain[b] = chain[chain[b]];
+            b = chain[b];
+        }
+
+        return b;
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory words outside the Java heap, in a direct buffer or in a mapped file
+ *
+ * A direct buffer holds a large address space without adding to the work
+ * of the garbage collector. A mapped file keeps the words after the JVM
+ * exits: opening the file again continues with the memory of the last run,
+ * and other tools can read it as big-endian 32-bit words while it runs.
+ */
+public class SmpBufferBackend implements SmpMemoryBackend, AutoCloseable {
+    // Bytes of a word
+    private static final int WORD_BYTES = Integer.BYTES;
+    // Largest number of words of a buffer
+    public static final int MAX_SIZE = Integer.MAX_VALUE / WORD_BYTES;
+
+    // Number of words
+    private final int size;
+    // The words
+    private final ByteBuffer buffer;
+    // Atomic access to the words in the byte order of the buffer
+    private final VarHandle words;
+    // Flag if the buffer is a mapped file, direct buffers are MappedByteBuffers too
+    private final boolean mapped;
+
+    /**
+     * Initialize the backend with a buffer of size words
+     *
+     * @param size Number of words
+     * @param buffer Direct or mapped buffer
+     * @param mapped Whether the buffer is a mapped file
+     */
+    private SmpBufferBackend(int size, ByteBuffer buffer, boolean mapped) {
+        this.size = size;
+        this.buffer = buffer;
+        this.mapped = mapped;
+        this.words = MethodHandles.byteBufferViewVarHandle(int[].class, buffer.order());
+    }
+
+    /**
+     * Allocate the words in a direct buffer, initialized to 0. Direct buffers
+     * are limited by -XX:MaxDirectMemorySize, the heap size by default.
+     *
+     * @param size Number of words
+     * @return backend
+     * @throws IllegalArgumentException If the size is negative or too large
+     */
+    public static SmpBufferBackend allocate(int size) {
+        checkSize(size);
+        return new SmpBufferBackend(size, ByteBuffer.allocateDirect(size * WORD_BYTES).order(ByteOrder.nativeOrder()), false);
+    }
+
+    /**
+     * Map the words to a file, created with every word 0 if it doesn't exist
+     *
+     * @param file The file
+     * @param size Number of words, the file is grown to fit them
+     * @return backend
+     * @throws IOException If the file can't be opened or mapped
+     * @throws IllegalArgumentException If the size is negative or too large
+     */
+    public static SmpBufferBackend map(Path file, int size) throws IOException {
+        checkSize(size);
+
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) size * WORD_BYTES);
+            return new SmpBufferBackend(size, buffer.order(ByteOrder.BIG_ENDIAN), true);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int get(int address) {
+        return (int) words.getOpaque(buffer, address * WORD_BYTES);
+    }
+
+    @Override
+    public void set(int address, int word) {
+        words.setOpaque(buffer, address * WORD_BYTES, word);
+    }
+
+    @Override
+    public int getVolatile(int address) {
+        return (int) words.getVolatile(buffer, address * WORD_BYTES);
+    }
+
+    @Override
+    public boolean compareAndSet(int address, int expected, int word) {
+        return words.compareAndSet(buffer, address * WORD_BYTES, expected, word);
+    }
+
+    @Override
+    public int getAndAdd(int address, int delta) {
+        return (int) words.getAndAdd(buffer, address * WORD_BYTES, delta);
+    }
+
+    /**
+     * Check if the buffer is a mapped file
+     *
+     * @return boolean
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Write the words of a mapped file to the storage device
+     */
+    public void force() {
+        if (isMapped()) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * Write the words of a mapped file to the storage device, the buffer
+     * itself is released by the garbage collector
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    /**
+     * Check the number of words of a buffer
+     *
+     * @param size Number of words
+     * @throws IllegalArgumentException If the size is negative or too large
+     */
+    private static void checkSize(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("invalid memory size " + size + " (at most " + MAX_SIZE + " words)");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Input lines of one processor, fed by another thread
+ *
+ * A processor run by {@link SmpScheduler} doesn't block on a READ without
+ * input. It is parked on its channel instead, and the next offer() or
+ * close() hands it back to the scheduler. A processor that isn't run by a
+ * scheduler waits for the input on its own thread.
+ */
+public class SmpChannel {
+    // Lines not read yet
+    private final Deque<String> lines = new ArrayDeque<String>();
+    // Flag if no more lines will be offered
+    private boolean closed = false;
+    // Resumes the processor parked on the channel, null if none
+    private Runnable waiter = null;
+
+    /**
+     * Add an input line
+     *
+     * @param line The line
+     * @throws IllegalStateException If the channel is closed
+     */
+    public void offer(String line) {
+        Runnable resume;
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("channel is closed");
+            }
+
+            lines.add(line);
+            resume = takeWaiter();
+            notifyAll();
+        }
+
+        // Resume outside of the lock
+        if (resume != null) {
+            resume.run();
+        }
+    }
+
+    /**
+     * Mark the end of the input, a READ after the last line halts the program
+     */
+    public void close() {
+        Runnable resume;
+
+        synchronized (this) {
+            closed = true;
+            resume = takeWaiter();
+            notifyAll();
+        }
+
+        if (resume != null) {
+            resume.run();
+        }
+    }
+
+    /**
+     * Get the next line without waiting
+     *
+     * @return line, or null if there is none yet or the input ended
+     */
+    synchronized String poll() {
+        return lines.poll();
+    }
+
+    /**
+     * Get the next line, waiting until there is one
+     *
+     * @return line, or null at the end of the input
+     */
+    synchronized String take() {
+        while (lines.isEmpty() && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        return lines.poll();
+    }
+
+    /**
+     * Check if every line has been read and no more will be offered
+     *
+     * @return boolean
+     */
+    synchronized boolean isDrained() {
+        return closed && lines.isEmpty();
+    }
+
+    /**
+     * Park a processor until there is input, or resume it now if there already is
+     *
+     * @param resume Hands the processor back to its scheduler
+     */
+    void park(Runnable resume) {
+        synchronized (this) {
+            if (lines.isEmpty() && !closed) {
+                waiter = resume;
+                return;
+            }
+        }
+
+        resume.run();
+    }
+
+    /**
+     * Remove the parked processor
+     *
+     * @return its resume action, or null if none
+     */
+    private Runnable takeWaiter() {
+        Runnable resume = waiter;
+        waiter = null;
+        return resume;
+    }
+}
@@ -0,0 +1,485 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ahead-of-time backend that translates a program image into a JVM class
+ *
+ * Every instruction becomes a few bytecodes of the class's run() method:
+ * the accumulator and every data cell are int locals, branches are jumps
+ * and READ, WRITE, DIVIDE and MODULO call {@link SmpRuntime}. The class is
+ * written by hand as version 49, which is verified without stack map
+ * frames, and its main method runs the program.
+ */
+class SmpClassWriter {
+    // Class file version, the last one verified by type inference
+    private static final int VERSION = 49;
+    // Runtime class called by the instructions
+    private static final String RUNTIME = "SmpRuntime";
+    // Local of the accumulator in run()
+    private static final int ACCUMULATOR = 1;
+
+    // Name of the written class
+    private final String className;
+    // Constant pool entries, the first one is unused
+    private final List<byte[]> constants = new ArrayList<byte[]>();
+    // Index of every constant pool entry
+    private final Map<String, Integer> constantIndex = new HashMap<String, Integer>();
+
+    /**
+     * Initialize the writer
+     *
+     * @param className Name of the class to write, a Java identifier
+     */
+    public SmpClassWriter(String className) {
+        this.className = className;
+        this.constants.add(null);
+    }
+
+    /**
+     * Translate the program image into a class file
+     *
+     * @param program Program image
+     * @param codeSize Number of instruction words at the start of the image, the rest is data
+     * @param source Name of the source file
+     * @return class file
+     * @throws SmpCompileException If the program can't be translated
+     */
+    public byte[] write(SmpProgram program, int codeSize, String source) throws SmpCompileException {
+        byte[] run = translate(program, codeSize);
+        int maxLocals = ACCUMULATOR + 1 + Math.max(0, SmpMemory.DEFAULT_SIZE - codeSize);
+
+        // Constructor calling Object()
+        Bytecode init = new Bytecode();
+        init.op(0x2a);
+        init.op(0xb7).u2(methodref("java/lang/Object", "<init>", "()V"));
+        init.op(0xb1);
+
+        // main() runs an instance of the class
+        Bytecode main = new Bytecode();
+        main.op(0xbb).u2(classref(className));
+        main.op(0x59);
+        main.op(0xb7).u2(methodref(className, "<init>", "()V"));
+        main.op(0xb8).u2(methodref(RUNTIME, "start", "(Ljava/lang/Runnable;)V"));
+        main.op(0xb1);
+
+        // Resolve the remaining constants before the pool is written
+        int thisClass = classref(className);
+        int superClass = classref("java/lang/Object");
+        int runnable = classref("java/lang/Runnable");
+        int code = utf8("Code");
+        int sourceFile = utf8("SourceFile");
+        int sourceName = utf8(source);
+        int[] names = { utf8("<init>"), utf8("run"), utf8("main") };
+        int[] types = { utf8("()V"), utf8("()V"), utf8("([Ljava/lang/String;)V") };
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            // Header and constant pool
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(constants.size());
+
+            for (int i = 1; i < constants.size(); i++) {
+                out.write(constants.get(i));
+            }
+
+            // public class <name> implements Runnable
+            out.writeShort(0x0021);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(runnable);
+            out.writeShort(0);
+
+            // Methods
+            out.writeShort(3);
+            writeMethod(out, 0x0001, names[0], types[0], code, 1, 1, init.toByteArray());
+            writeMethod(out, 0x0001, names[1], types[1], code, 3, maxLocals, run);
+            writeMethod(out, 0x0009, names[2], types[2], code, 2, 1, main.toByteArray());
+
+            // SourceFile attribute
+            out.writeShort(1);
+            out.writeShort(sourceFile);
+            out.writeInt(2);
+            out.writeShort(sourceName);
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Translate the instructions into the body of run()
+     *
+     * @param program Program image
+     * @param codeSize Number of instruction words
+     * @return bytecode
+     * @throws SmpCompileException If an instruction can't be translated
+     */
+    private byte[] translate(SmpProgram program, int codeSize) throws SmpCompileException {
+        Bytecode code = new Bytecode();
+        int memorySize = SmpMemory.DEFAULT_SIZE;
+        // Offset of every instruction
+        int[] offsets = new int[codeSize + 1];
+        // Branches to patch, offset of the opcode and target address
+        List<int[]> branches = new ArrayList<int[]>();
+
+        // Initialize the accumulator and every data cell
+        code.pushInt(0);
+        code.op(0x36).u1(ACCUMULATOR);
+
+        for (int address = codeSize; address < memorySize; address++) {
+            code.pushInt(address < program.size() ? program.getWord(address) : 0);
+            code.op(0x36).u1(getLocal(address, codeSize));
+        }
+
+        for (int pc = 0; pc < codeSize; pc++) {
+            offsets[pc] = code.size();
+
+            int word = program.getWord(pc);
+            int opcode = word / 100;
+            int operand = word % 100;
+
+            switch (opcode) {
+                // READ
+                case 10:
+                    code.op(0xb8).u2(methodref(RUNTIME, "read", "()I"));
+                    store(code, operand, codeSize);
+                    break;
+
+                // WRITE
+                case 11:
+                    load(code, program, operand, codeSize);
+                    code.op(0xb8).u2(methodref(RUNTIME, "write", "(I)V"));
+                    break;
+
+                // LOAD
+                case 20:
+                    load(code, program, operand, codeSize);
+                    code.op(0x36).u1(ACCUMULATOR);
+                    break;
+
+                // STORE
+                case 21:
+                    code.op(0x15).u1(ACCUMULATOR);
+                    store(code, operand, codeSize);
+                    break;
+
+                // ADD, SUBTRACT and MULTIPLY
+                case 30:
+                case 31:
+                case 32:
+                    code.op(0x15).u1(ACCUMULATOR);
+                    load(code, program, operand, codeSize);
+                    code.op(opcode == 30 ? 0x60 : opcode == 31 ? 0x64 : 0x68);
+                    code.op(0x36).u1(ACCUMULATOR);
+                    break;
+
+                // DIVIDE and MODULO, faulting on zero
+                case 33:
+                case 34:
+                    code.op(0x15).u1(ACCUMULATOR);
+                    load(code, program, operand, codeSize);
+                    code.pushInt(pc);
+                    code.op(0xb8).u2(methodref(RUNTIME, opcode == 33 ? "divide" : "modulo", "(III)I"));
+                    code.op(0x36).u1(ACCUMULATOR);
+                    break;
+
+                // BRANCH, BRANCHNEG and BRANCHZERO
+                case 40:
+                case 41:
+                case 42:
+                    if (operand >= codeSize) {
+                        throw new SmpCompileException("branch into data at address " + pc + " is not supported by the class backend");
+                    }
+
+                    if (opcode != 40) {
+                        code.op(0x15).u1(ACCUMULATOR);
+                    }
+
+                    branches.add(new int[] { code.size(), operand });
+                    code.op(opcode == 40 ? 0xa7 : opcode == 41 ? 0x9b : 0x99).u2(0);
+                    break;
+
+                // HALT
+                case 43:
+                    code.op(0xb1);
+                    break;
+
+                // Words that aren't instructions do nothing, the data cells are locals so computed addresses can't be translated
+                default:
+                    if (opcode >= 22 && opcode <= 26 || opcode >= 50 && opcode <= 54) {
+                        throw new SmpCompileException(SmpMetrics.getOpcodeName(opcode) + " at address " + pc + " is not supported by the class backend");
+                    }
+            }
+        }
+
+        // Running past the last instruction stops the program
+        offsets[codeSize] = code.size();
+        code.op(0xb1);
+
+        // Branch offsets are relative to the branch opcode
+        for (int[] branch : branches) {
+            int offset = offsets[branch[1]] - branch[0];
+
+            if (offset != (short) offset) {
+                throw new SmpCompileException("program is too large for the class backend");
+            }
+
+            code.patch(branch[0] + 1, offset);
+        }
+
+        return code.toByteArray();
+    }
+
+    /**
+     * Push a memory word
+     *
+     * @param code The bytecode
+     * @param program Program image
+     * @param address The address
+     * @param codeSize Number of instruction words
+     */
+    private void load(Bytecode code, SmpProgram program, int address, int codeSize) {
+        // Instruction words are never written, so they are constants
+        if (address < codeSize) {
+            code.pushInt(program.getWord(address));
+            return;
+        }
+
+        code.op(0x15).u1(getLocal(address, codeSize));
+    }
+
+    /**
+     * Pop into a memory word
+     *
+     * @param code The bytecode
+     * @param address The address
+     * @param codeSize Number of instruction words
+     * @throws SmpCompileException If the address is an instruction
+     */
+    private void store(Bytecode code, int address, int codeSize) throws SmpCompileException {
+        if (address < codeSize) {
+            throw new SmpCompileException("store into the instruction at address " + address + " is not supported by the class backend");
+        }
+
+        code.op(0x36).u1(getLocal(address, codeSize));
+    }
+
+    /**
+     * Get the local of a data cell
+     *
+     * @param address The address
+     * @param codeSize Number of instruction words
+     * @return local index
+     */
+    private static int getLocal(int address, int codeSize) {
+        return ACCUMULATOR + 1 + address - codeSize;
+    }
+
+    /**
+     * Write a method with a Code attribute
+     *
+     * @param out The class file
+     * @param access Access flags
+     * @param name Name constant
+     * @param type Descriptor constant
+     * @param code "Code" constant
+     * @param maxStack Maximum operand stack depth
+     * @param maxLocals Number of locals
+     * @param bytecode The bytecode
+     * @throws IOException If the class file can't be written
+     */
+    private static void writeMethod(DataOutputStream out, int access, int name, int type, int code, int maxStack, int maxLocals, byte[] bytecode) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+
+        // Code attribute without exception handlers and attributes
+        out.writeShort(code);
+        out.writeInt(12 + bytecode.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    // =========================================================== //
+
+    /**
+     * Get a UTF-8 constant
+     *
+     * @param value The string
+     * @return constant index
+     */
+    private int utf8(String value) {
+        return constant("Utf8:" + value, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    /**
+     * Get an integer constant
+     *
+     * @param value The integer
+     * @return constant index
+     */
+    private int integer(int value) {
+        return constant("Integer:" + value, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    /**
+     * Get a class constant
+     *
+     * @param name Internal class name (e.g java/lang/Object)
+     * @return constant index
+     */
+    private int classref(String name) {
+        int nameIndex = utf8(name);
+
+        return constant("Class:" + name, out -> {
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    /**
+     * Get a method constant
+     *
+     * @param owner Internal class name
+     * @param name Method name
+     * @param type Method descriptor
+     * @return constant index
+     */
+    private int methodref(String owner, String name, String type) {
+        int ownerIndex = classref(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(type);
+
+        int nameAndType = constant("NameAndType:" + name + type, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(typeIndex);
+        });
+
+        return constant("Methodref:" + owner + "." + name + type, out -> {
+            out.writeByte(10);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    /**
+     * Writes a constant pool entry
+     */
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Get a constant pool entry, adding it if it's new
+     *
+     * @param key Unique key of the entry
+     * @param entry Writes the entry
+     * @return constant index
+     */
+    private int constant(String key, Entry entry) {
+        Integer index = constantIndex.get(key);
+
+        if (index != null) {
+            return index;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            entry.write(new DataOutputStream(bytes));
+            constants.add(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        constantIndex.put(key, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    /**
+     * Growing bytecode of a method
+     */
+    private class Bytecode {
+        // Bytes written so far
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // Patches applied by toByteArray(), offset and 16-bit value
+        private final List<int[]> patches = new ArrayList<int[]>();
+
+        Bytecode op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Bytecode u1(int value) {
+            bytes.write(value);
+            return this;
+        }
+
+        Bytecode u2(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        // Push an int with the shortest instruction
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value);
+            } else if (value == (byte) value) {
+                op(0x10).u1(value);
+            } else if (value == (short) value) {
+                op(0x11).u2(value);
+            } else {
+                int index = integer(value);
+
+                if (index < 256) {
+                    op(0x12).u1(index);
+                } else {
+                    op(0x13).u2(index);
+                }
+            }
+        }
+
+        void patch(int offset, int value) {
+            patches.add(new int[] { offset, value });
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        byte[] toByteArray() {
+            byte[] code = bytes.toByteArray();
+
+            for (int[] patch : patches) {
+                code[patch[0]] = (byte) (patch[1] >> 8);
+                code[patch[0] + 1] = (byte) patch[1];
+            }
+
+            return code;
+        }
+    }
+}
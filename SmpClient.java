@@ -0,0 +1,102 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client of the compile/run daemon
+ *
+ * Usage: java SmpClient [--socket path | --port number] compile|run|exec file
+ *
+ * The READ input of run and exec is taken from the standard input when it
+ * is not a terminal.
+ */
+public class SmpClient {
+    /**
+     * Client entry point
+     *
+     * @param args Address options, command and file
+     * @throws Exception If an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        // Get the address options
+        SocketAddress address = SmpDaemon.parseAddress(args);
+        int offset = args.length > 1 && args[0].startsWith("--") ? 2 : 0;
+
+        // Check if args have values
+        if (args.length - offset < 2) {
+            SmpCompiler.printError("usage: SmpClient [--socket path | --port number] compile|run|exec file");
+            System.exit(1);
+        }
+
+        // Get the command and its file
+        String command = args[offset].toUpperCase();
+        List<String> file = Files.readAllLines(Paths.get(args[offset + 1]));
+
+        // Connect to the daemon
+        try (SocketChannel channel = address instanceof UnixDomainSocketAddress
+            ? SocketChannel.open(StandardProtocolFamily.UNIX)
+            : SocketChannel.open()) {
+            channel.connect(address);
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+
+            // Send the request
+            out.write(command + "\n");
+            SmpDaemon.writeBlock(out, file);
+
+            if (!command.equals("COMPILE")) {
+                SmpDaemon.writeBlock(out, readInput());
+            }
+
+            out.write("QUIT\n");
+            out.flush();
+
+            // Print the response
+            String status = in.readLine();
+
+            if (status == null || !status.equals("OK")) {
+                SmpCompiler.printError(status == null ? "no response from daemon" : status.replaceFirst("^ERROR ", ""));
+                System.exit(1);
+            }
+
+            for (String line : SmpDaemon.readBlock(in)) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    /**
+     * Read the input lines of the program from the standard input
+     *
+     * @return lines, empty when the standard input is a terminal
+     * @throws Exception If the input can't be read
+     */
+    private static List<String> readInput() throws Exception {
+        // Don't wait for a user typing on a terminal
+        if (System.console() != null) {
+            return new ArrayList<String>();
+        }
+
+        BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+        List<String> lines = new ArrayList<String>();
+        String line;
+
+        while ((line = stdin.readLine()) != null) {
+            lines.add(line);
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Compilation error raised by the high-level simpletron compiler
+ */
+public class SmpCompileException extends Exception {
+    // Version of the serialized form
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Initialize the exception with the diagnostic message
+     *
+     * @param message The message (e.g. variable 'A' not found in (main.smp:3))
+     */
+    public SmpCompileException(String message) {
+        super(message);
+    }
+}
@@ -1,27 +1,59 @@
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.FileWriter;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-enum Status {
-    CONTINUE, BREAK, DONE
+/**
+ * An open IF, ELSE or WHILE block
+ */
+class SmpBlock {
+    public String type;
+    public int line;
+    public String condition;
+    public SmpLabel next;
+    public SmpLabel end;
+
+    public SmpBlock(String type, int line, String condition) {
+        this.type = type;
+        this.line = line;
+        this.condition = condition;
+    }
 }
 
 /**
- * A variable class with address
+ * Instructions and labels of a source line before optimization, kept to
+ * recompile only the lines that changed
  */
-class SmpVariable {
-    public int address;
-    public String name;
-    public String value;
-
-    public SmpVariable(int address, String name, String value) {
-        this.address = address;
-        this.name = name;
-        this.value = value;
+class SmpStatement {
+    public int start;
+    public List<SmpInstruction> code = new ArrayList<SmpInstruction>();
+    public Map<SmpLabel, Integer> labels = new HashMap<SmpLabel, Integer>();
+    public SmpVariable declaration = null;
+    public boolean structural = false;
+
+    public SmpStatement(int start) {
+        this.start = start;
     }
 }
 
@@ -34,7 +66,7 @@ class SmpVariable {
  * ------------ Features: -------------
  *  1. Compile high-level simpletron instruction into low-level.
  *  2. Dynamic branching with `@branch_name` anywhere in the program.
- *  3. Evaluate arithmetic expressions.
+ *  3. Evaluate arithmetic expressions with operator precedence.
  *  4. Declare variables anywhere.
  *  5. Include only used variables to improve memory efficiency.
  *  6. Show error if variable declared but doesn't have a value.
@@ -43,19 +75,50 @@ class SmpVariable {
  *  9. Detect whether the command is valid or not.
  * 10. Single line comment with ">"
  * 11. Append HALT instruction at the end of the program if not explicitly added.
+ * 12. Structured IF, ELSE and WHILE blocks closed by END.
+ * 13. Variables that are never live at the same time share a memory cell.
+ * 14. Spawn cores at a label with SPAWN and synchronize them with atomic instructions.
+ * 15. Compile to a standalone JVM class with "--class".
+ * 16. Watch the input and recompile only the edited lines with "--watch".
+ * 17. Compile modules with IMPORT and EXPORT to relocatable objects with "--object".
+ * 18. Unroll counted loops while the program fits in memory.
+ * 19. Lay out the basic blocks with an execution profile with "--layout".
+ * 20. Replace short instruction sequences with the cheapest equivalent found by a superoptimizer.
+ * 21. Run the part of the program that reads no input at compile time and write its output.
+ * 22. Declare arrays with ARRAY and index them with A[I] through the index register.
  * ------------------------------------
  */
 public class SmpCompiler {
     // Simpletron high-level commands
     private final HashMap<String, Integer> commands = createCommands();
     // Simpletron branch storage
-    private final HashMap<String, Integer> branches = new HashMap<String, Integer>();
+    private final HashMap<String, SmpLabel> branches = new HashMap<String, SmpLabel>();
     // Variable storage
     private final List<SmpVariable> variables = new ArrayList<SmpVariable>();
+    // Variable storage by name
+    private final HashMap<String, SmpVariable> variableNames = new HashMap<String, SmpVariable>();
     // Initialize the program storage
     private final List<String> program = new ArrayList<String>();
-    // List of operands
-    private final List<Integer> operands = new ArrayList<Integer>();
+    // Instructions before relocation
+    private final List<SmpInstruction> code = new ArrayList<SmpInstruction>();
+    // Unoptimized instructions of every line of the last compilation
+    private final List<SmpStatement> statements = new ArrayList<SmpStatement>();
+    // Statement of the line being processed
+    private SmpStatement statement = null;
+    // Index of the line being processed
+    private int current = -1;
+    // Variable loaded into the index register by the line being processed, null if none
+    private SmpVariable indexed = null;
+    // Line of every exported symbol, branches are named with the identifier
+    private final Map<String, Integer> exports = new LinkedHashMap<String, Integer>();
+    // Imported symbols, branches are named with the identifier
+    private final Set<String> imports = new LinkedHashSet<String>();
+    // Words whose operand is patched when the module is linked
+    private final List<SmpRelocation> relocations = new ArrayList<SmpRelocation>();
+    // Flag if the program is compiled into a relocatable module
+    private boolean object = false;
+    // Open IF, ELSE and WHILE blocks
+    private final Deque<SmpBlock> blocks = new ArrayDeque<SmpBlock>();
     // Initialize output
     private final List<String> output = new ArrayList<String>();
     // Input extension name
@@ -64,20 +127,60 @@ public class SmpCompiler {
     private final String OUTPUT_FILE_EXT = "sml";
     // Branch keyword identifier
     private final String BRANCH_IDENTIFIER = "@";
+    // Condition of IF and WHILE (e.g A <= B + 1)
+    private static final Pattern CONDITION = Pattern.compile("(.+?)(<=|>=|==|!=|<|>)(.+)");
+    // Array declaration without the keyword (e.g A[5]=1,2,3)
+    private static final Pattern ARRAY = Pattern.compile("([^\\[\\]=,+\\-*/%()@>]+)\\[(\\d{1,9})\\](?:=(.*))?");
     // Initialize input file name
     private String inputFilename = "";
     // Compilation time
     private long compilationTime = 0;
-    // Flag if the input program has a halt instruction
-    private boolean hasHalt = false;
+    // Flag if the compilation statistics should not be printed
+    private boolean quiet = false;
+    // Last compiled program image
+    private SmpProgram image = null;
+    // Number of lines processed by the last compilation
+    private int recompiledLines = 0;
+    // Number of iterations of an unrolled loop body, 1 to not unroll
+    private int unrollFactor = 4;
+    // Largest number of words of a program with unrolled loops, 0 for half of the free words
+    private int unrollBudget = 0;
+    // Execution profile of the program the blocks are laid out with, null to keep the code order
+    private SmpProfile profile = null;
+    // Flag if the last compilation laid out the blocks with the profile
+    private boolean profileApplied = false;
+    // Cheapest replacements of short instruction sequences, null to not rewrite them
+    private SmpRewriteTable rewrites = SmpRewriteTable.getDefault();
+    // Largest number of instructions run at compile time, 0 to not evaluate the program
+    private long evaluationLimit = 100_000;
+    // Initial values of the variables set by the compile-time run, instead of the declared ones
+    private final Map<SmpVariable, String> values = new HashMap<SmpVariable, String>();
+
+    /**
+     * Initialize an empty compiler, use {@link #load(String)} to set the input
+     */
+    public SmpCompiler() {
+    }
 
     /**
      * Initialize compiler with file name
      *
      * @param filename Input filename
-     * @throws FileNotFoundException If file doesn't exist
+     * @throws IOException If file doesn't exist or can't be read
+     * @throws SmpCompileException If the file is not a valid input
      */
-    public SmpCompiler(String filename) throws FileNotFoundException {
+    public SmpCompiler(String filename) throws IOException, SmpCompileException {
+        load(filename);
+    }
+
+    /**
+     * Load the input file, discarding the state of any previous compilation
+     *
+     * @param filename Input filename
+     * @throws IOException If file doesn't exist or can't be read
+     * @throws SmpCompileException If the file is not a valid input
+     */
+    public void load(String filename) throws IOException, SmpCompileException {
         // Get the file
         File file = new File(filename);
 
@@ -91,294 +194,1531 @@ public class SmpCompiler {
             error("must be a ." + INPUT_FILE_EXT + " file.");
         }
 
+        // Otherwise, read the file
+        try (Reader reader = new FileReader(file)) {
+            load(reader, filename);
+        }
+    }
+
+    /**
+     * Load the source text, discarding the state of any previous compilation
+     *
+     * @param reader Source text
+     * @param name Name of the source used in error messages
+     * @throws IOException If the source can't be read
+     */
+    public void load(Reader reader, String name) throws IOException {
         // Reset simpletron properties
         reset();
 
-        // Otherwise, read the file
-        Scanner sc = new Scanner(file);
+        // Start the lexing phase
+        SmpEvents.CompilePhase event = new SmpEvents.CompilePhase();
+        event.begin();
 
-        // Read the file line by line
-        while (sc.hasNextLine()) {
-            // Get the line, and trim
-            String line = sc.nextLine().trim();
+        // Read the source line by line
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+
+        while ((line = br.readLine()) != null) {
+            // Trim the line
+            line = line.trim();
             // add to program
             program.add(line);
+        }
+
+        // Set input filename
+        inputFilename = name;
+        commitPhase(event, "lexing", program.size());
+    }
+
+    /**
+     * Compile the source text into a program image without touching the filesystem
+     *
+     * @param source Source text
+     * @return program image
+     * @throws SmpCompileException If the program has an error
+     */
+    public static SmpProgram compileSource(String source) throws SmpCompileException {
+        SmpCompiler compiler = new SmpCompiler();
+
+        try {
+            compiler.load(new StringReader(source), "<source>");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return compiler.compileProgram();
+    }
+
+    /**
+     * Compiles the program and writes the .sml output file
+     *
+     * @throws SmpCompileException If the program has an error
+     * @throws IOException If the output file can't be written
+     */
+    public void compile() throws SmpCompileException, IOException {
+        // Compile into memory
+        compileProgram();
+
+        // Start the output phase
+        SmpEvents.CompilePhase event = new SmpEvents.CompilePhase();
+        event.begin();
+        boolean written = generateOutput(output);
+        commitPhase(event, "output", output.size());
+
+        // Output file
+        if (written && !quiet) {
+            // Print output statistics
+            printOutputStats(output, true);
+        }
+    }
+
+    /**
+     * Compile the loaded program into a JVM class whose main method runs it
+     *
+     * @param className Name of the class, a Java identifier
+     * @return class file
+     * @throws SmpCompileException If the program has an error or uses multi-core instructions
+     */
+    public byte[] compileClass(String className) throws SmpCompileException {
+        SmpProgram program = compileProgram();
+        return new SmpClassWriter(className).write(program, code.size(), new File(inputFilename).getName());
+    }
+
+    /**
+     * Compile the loaded program into a .class file next to the input file
+     *
+     * @return class file name
+     * @throws SmpCompileException If the program has an error or uses multi-core instructions
+     * @throws IOException If the class file can't be written
+     */
+    public String compileClassFile() throws SmpCompileException, IOException {
+        String className = getClassName();
+        File parent = new File(inputFilename).getAbsoluteFile().getParentFile();
+        File file = new File(parent, className + ".class");
+
+        Files.write(file.toPath(), compileClass(className));
+        return file.getPath();
+    }
+
+    /**
+     * Compile the loaded program into a relocatable module
+     *
+     * @return object
+     * @throws SmpCompileException If the program has an error
+     */
+    public SmpObject compileObject() throws SmpCompileException {
+        object = true;
+
+        try {
+            compileProgram();
+        } finally {
+            object = false;
+        }
+
+        // Address of every exported symbol
+        Map<String, Integer> exported = new LinkedHashMap<String, Integer>();
 
-            // If the line is not empty, increment
-            if (line.equals("HALT")) {
-                // Set the flag to true
-                hasHalt = true;
+        for (String symbol : exports.keySet()) {
+            if (symbol.startsWith(BRANCH_IDENTIFIER)) {
+                exported.put(symbol, getLabel(symbol.substring(1)).index);
+            } else {
+                exported.put(symbol, getVariable(symbol).address);
             }
         }
 
-        // Set input filename
-        inputFilename = filename;
-        // Close the scanner
-        sc.close();
+        return new SmpObject(new File(inputFilename).getName(), image.getWords(), exported, new ArrayList<String>(imports), new ArrayList<SmpRelocation>(relocations));
+    }
+
+    /**
+     * Compile the loaded program into a .smo object file next to the input file
+     *
+     * @return object file name
+     * @throws SmpCompileException If the program has an error
+     * @throws IOException If the object file can't be written
+     */
+    public String compileObjectFile() throws SmpCompileException, IOException {
+        String filename = SmpObject.getObjectFilename(inputFilename);
+
+        compileObject().write(new File(filename).toPath());
+        return filename;
+    }
+
+    /**
+     * Get the class name of the input file (e.g while.smp is While)
+     *
+     * @return class name
+     */
+    public String getClassName() {
+        // Get filename without directory and extension
+        String name = new File(inputFilename).getName();
+        int index = name.lastIndexOf(".");
+
+        if (index > 0) {
+            name = name.substring(0, index);
+        }
+
+        // Keep only the characters of a Java identifier
+        name = name.replaceAll("[^A-Za-z0-9_$]", "_");
+
+        if (name.isEmpty() || !Character.isLetter(name.charAt(0))) {
+            name = "Smp" + name;
+        }
+
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Compiles the loaded program into a program image
+     *
+     * @return program image
+     * @throws SmpCompileException If the program has an error
+     */
+    public SmpProgram compileProgram() throws SmpCompileException {
+        long started = System.nanoTime();
+        boolean compiled = false;
+
+        try {
+            SmpProgram result = translate();
+            compiled = true;
+            return result;
+        } finally {
+            // Record the latency and outcome in the metrics
+            SmpMetrics.get().recordCompile(System.nanoTime() - started, compiled);
+        }
+    }
+
+    /**
+     * Recompile the edited source of the loaded program. Only the lines that
+     * changed since the last compilation are processed again, as long as
+     * they don't declare branches, blocks or variables (a declaration may
+     * change its value), otherwise the whole source is compiled.
+     *
+     * @param reader Edited source text
+     * @return program image
+     * @throws IOException If the source can't be read
+     * @throws SmpCompileException If the program has an error
+     */
+    public SmpProgram recompile(Reader reader) throws IOException, SmpCompileException {
+        // Read the source line by line
+        BufferedReader br = new BufferedReader(reader);
+        List<String> lines = new ArrayList<String>();
+        String line;
+
+        while ((line = br.readLine()) != null) {
+            lines.add(line.trim());
+        }
+
+        long started = System.nanoTime();
+        boolean compiled = false;
+
+        try {
+            SmpProgram result = update(lines);
+
+            // Compile everything if the edit can't be patched in
+            if (result == null) {
+                program.clear();
+                program.addAll(lines);
+                result = translate();
+            }
+
+            compiled = true;
+            return result;
+        } finally {
+            // A failed compilation may leave the statements half updated
+            if (!compiled) {
+                image = null;
+            }
+
+            // Record the latency and outcome in the metrics
+            SmpMetrics.get().recordCompile(System.nanoTime() - started, compiled);
+        }
+    }
+
+    /**
+     * Get the number of lines processed by the last compilation
+     *
+     * @return number of lines, the whole source unless it was recompiled incrementally
+     */
+    public int getRecompiledLines() {
+        return recompiledLines;
+    }
+
+    /**
+     * Process the changed lines again and link them with the kept statements
+     *
+     * @param lines Edited source lines, trimmed
+     * @return program image, or null if the whole source must be compiled
+     */
+    private SmpProgram update(List<String> lines) throws SmpCompileException {
+        // Nothing to patch
+        if (image == null) {
+            return null;
+        }
+
+        // Find the unchanged lines at the start and at the end
+        int limit = Math.min(program.size(), lines.size());
+        int first = 0;
+        int last = 0;
+
+        while (first < limit && program.get(first).equals(lines.get(first))) {
+            first++;
+        }
+
+        while (last < limit - first && program.get(program.size() - 1 - last).equals(lines.get(lines.size() - 1 - last))) {
+            last++;
+        }
+
+        int oldEnd = program.size() - last;
+        int newEnd = lines.size() - last;
+        int declarations = 0;
+
+        // The removed lines must not have declared anything the others use
+        for (int i = first; i < oldEnd; i++) {
+            if (statements.get(i).structural) {
+                return null;
+            }
+
+            if (statements.get(i).declaration != null) {
+                declarations++;
+            }
+        }
+
+        // Set initial compilation time
+        compilationTime = System.currentTimeMillis();
+
+        // Start the statement processing phase
+        SmpEvents.CompilePhase event = new SmpEvents.CompilePhase();
+        event.begin();
+
+        // Move the variables declared after the edit to their new lines
+        for (SmpVariable v : variables) {
+            if (v.line >= oldEnd) {
+                v.line += newEnd - oldEnd;
+            }
+        }
+
+        int labels = branches.size();
+        List<SmpStatement> changed = new ArrayList<SmpStatement>();
+        code.clear();
+
+        for (int i = first; i < newEnd; i++) {
+            String line = lines.get(i);
+
+            // Blocks and branch declarations change the other lines
+            if (line.matches("(IF|WHILE) .*|ELSE|END|(IMPORT|EXPORT)( .*)?") || line.startsWith(BRANCH_IDENTIFIER)) {
+                return null;
+            }
+
+            try {
+                // A declaration may only change the value of the declaration on the same line
+                if (isDeclaration(line)) {
+                    String[] declaration = parseDeclaration(i, line);
+                    SmpVariable v = i < oldEnd ? statements.get(i).declaration : null;
+
+                    if (v == null || !v.name.equals(declaration[0])) {
+                        return null;
+                    }
+
+                    v.value = declaration[1];
+                    declarations--;
+
+                    SmpStatement kept = new SmpStatement(0);
+                    kept.declaration = v;
+                    changed.add(kept);
+                    continue;
+                }
+
+                SmpStatement processed = processStatement(i, line);
+
+                if (processed.structural) {
+                    return null;
+                }
+
+                // A variable declared on a later line is an error of the full compilation
+                for (SmpInstruction instruction : processed.code) {
+                    if (instruction.variable != null && isNamed(instruction.variable) && instruction.variable.line >= i) {
+                        return null;
+                    }
+                }
+
+                changed.add(processed);
+            } catch (SmpCompileException e) {
+                // Let the full compilation report the first error of the program
+                return null;
+            }
+        }
+
+        // A new branch name or a removed declaration is an error of the full compilation
+        if (branches.size() != labels || declarations != 0) {
+            return null;
+        }
+
+        // Replace the changed lines
+        statements.subList(first, oldEnd).clear();
+        statements.addAll(first, changed);
+        program.subList(first, oldEnd).clear();
+        program.addAll(first, lines.subList(first, newEnd));
+        recompiledLines = newEnd - first;
+
+        // Lay out the unoptimized instructions of every line again
+        code.clear();
+
+        for (SmpStatement s : statements) {
+            for (Map.Entry<SmpLabel, Integer> entry : s.labels.entrySet()) {
+                entry.getKey().index = code.size() + entry.getValue();
+            }
+
+            for (SmpInstruction instruction : s.code) {
+                code.add(new SmpInstruction(instruction.opcode, instruction.variable, instruction.label));
+            }
+        }
+
+        return link(event);
     }
 
     /**
-     * Compiles the program
+     * Translate the loaded program into a program image
+     *
+     * @return program image
+     * @throws SmpCompileException If the program has an error
      */
-    public void compile() throws Exception {
+    private SmpProgram translate() throws SmpCompileException {
+        // Discard the output of a previous compilation
+        output.clear();
+        code.clear();
+        blocks.clear();
+        branches.clear();
+        variables.clear();
+        variableNames.clear();
+        statements.clear();
+        exports.clear();
+        imports.clear();
+        image = null;
+
         // If the program is empty, return
         if (isProgramEmpty()) {
             error("no instructions written (" + inputFilename + ")");
-            return;
         }
 
         // Set initial compilation time
         compilationTime = System.currentTimeMillis();
 
+        // Start the statement processing phase
+        SmpEvents.CompilePhase event = new SmpEvents.CompilePhase();
+        event.begin();
+
         // Loop through the program
         for (int i = 0; i < program.size(); i++) {
-            // Remove trailing and leading whitespace
-            String line = program.get(i).trim();
+            statements.add(processStatement(i, program.get(i)));
+        }
 
-            // Check if the line is a comment, or
-            // Check if the line is empty
-            if (line.startsWith(">") || line.isEmpty()) {
-                // Proceed to next line
-                continue;
+        // Check if every block is closed
+        if (!blocks.isEmpty()) {
+            error("missing END of " + blocks.peek().type + " " + getFilenameWithLine(blocks.peek().line));
+        }
+
+        // Check if every branch is declared
+        for (SmpLabel label : branches.values()) {
+            if (label.index == -1 && !label.imported) {
+                error("branch name '" + BRANCH_IDENTIFIER + label.name + "' doesn't exist in " + getFilenameWithLine(label.line));
             }
+        }
 
-            // Check if the line is a variable declaration
-            if (line.contains("=")) {
-                // If it has plus or minus sign
-                if (line.contains("+") || line.contains("-")) {
-                    // Check if it's an arithmetic expression
-                    // Split by operators
-                    String[] split = line.split("=")[1].split("[+-]");
-                    // If expression
-                    boolean isExpression = true;
-
-                    // Loop through the split
-                    for (String s : split) {
-                        // If s is blank
-                        if (s.trim().isEmpty()) {
-                            // Proceed to next line
-                            isExpression = false;
-                            break;
-                        }
-                    }
+        // Check the imported and exported symbols
+        processLinkage();
 
-                    // If it's an expression
-                    if (isExpression) {
-                        // Process expression declaration
-                        processExpression(i, line);
-                        // Proceed to next line
-                        continue;
-                    }
-                }
+        recompiledLines = program.size();
+        return link(event);
+    }
 
-                // Process variable declaration
-                processVariable(i, line);
-                // Proceed to next line
-                continue;
+    /**
+     * Optimize and relocate the processed statements into the program image
+     *
+     * @param event the started event of the statement processing phase
+     * @return program image
+     */
+    private SmpProgram link(SmpEvents.CompilePhase event) {
+        // Always end with a HALT, it's removed with the dead code if
+        // the program can't fall through to the end
+        code.add(new SmpInstruction(commands.get("HALT"), null, null));
+        commitPhase(event, "statements", code.size());
+
+        // Start the optimization phase
+        event = new SmpEvents.CompilePhase();
+        event.begin();
+        // Forward chains of jumps
+        processJumps();
+        // Remove unreachable instructions
+        processDeadCode();
+        // Run the part that needs no input
+        processEvaluation();
+        // Unroll the counted loops
+        processLoops();
+        // Replace the sequences that have a cheaper equivalent
+        processRewrites();
+        // Lay out the blocks with the profile
+        processLayout();
+        commitPhase(event, "optimization", code.size());
+
+        // Start the relocation phase
+        event = new SmpEvents.CompilePhase();
+        event.begin();
+        // Process operands
+        output.clear();
+        processOperands();
+        commitPhase(event, "relocation", output.size());
+
+        // Calculate compilation time
+        compilationTime = System.currentTimeMillis() - compilationTime;
+
+        // Build the program image
+        int[] words = new int[output.size()];
+
+        for (int i = 0; i < words.length; i++) {
+            words[i] = Integer.parseInt(output.get(i));
+        }
+
+        image = new SmpProgram(words);
+        return image;
+    }
+
+    /**
+     * Process a line and keep its unoptimized instructions
+     *
+     * @param i line index
+     * @param text current line
+     * @return statement
+     */
+    private SmpStatement processStatement(int i, String text) throws SmpCompileException {
+        int declared = variables.size();
+
+        statement = new SmpStatement(code.size());
+        current = i;
+        indexed = null;
+        processLine(i, text.trim());
+
+        // Copy the instructions, the optimizations change them in place
+        for (int n = statement.start; n < code.size(); n++) {
+            SmpInstruction instruction = code.get(n);
+            statement.code.add(new SmpInstruction(instruction.opcode, instruction.variable, instruction.label));
+        }
+
+        // A variable declared by an expression changes what the next lines can use
+        for (int n = declared; n < variables.size(); n++) {
+            if (isNamed(variables.get(n)) && variables.get(n) != statement.declaration) {
+                statement.structural = true;
             }
+        }
+
+        return statement;
+    }
+
+    /**
+     * Process a line
+     *
+     * @param i line index
+     * @param line current line, trimmed
+     */
+    private void processLine(int i, String line) throws SmpCompileException {
+        // Check if the line is a comment, or
+        // Check if the line is empty
+        if (line.startsWith(">") || line.isEmpty()) {
+            // Proceed to next line
+            return;
+        }
+
+        // Check if the line is a structured statement
+        if (line.matches("(IF|WHILE) .*|ELSE|END")) {
+            // Process IF, ELSE, WHILE or END, the blocks around the next lines depend on it
+            statement.structural = true;
+            processBlock(i, line);
+            // Proceed to next line
+            return;
+        }
+
+        // Check if the line imports or exports a symbol
+        if (line.matches("(IMPORT|EXPORT)( .*)?")) {
+            // Process IMPORT or EXPORT, the next lines may use the symbol
+            statement.structural = true;
+            processSymbol(i, line);
+            // Proceed to next line
+            return;
+        }
+
+        // Check if the line declares an array
+        if (line.matches("ARRAY( .*)?")) {
+            // Process ARRAY, the next lines may use the array
+            statement.structural = true;
+            processArray(i, line);
+            // Proceed to next line
+            return;
+        }
 
-            // If current line is a branch declaration
-            if (line.startsWith(BRANCH_IDENTIFIER)) {
-                // Process branch declaration
-                processBranch(i, line);
+        // Check if the line is a variable declaration
+        if (line.contains("=")) {
+            // Get the value
+            String value = line.substring(line.indexOf("=") + 1).replaceAll(" ", "");
+
+            // If the value is not a number or it's stored in an element, it's an expression (e.g A = B * (C + 1))
+            if (!value.isEmpty() && !value.matches("[+-]?\\d+") || line.substring(0, line.indexOf("=")).contains("[")) {
+                // Process expression declaration
+                processExpression(i, line);
                 // Proceed to next line
-                continue;
+                return;
             }
 
-            // Using other commands
-            // Split the line by space
-            String[] commandTokens = line.split(" ", 2);
+            // Process variable declaration
+            processVariable(i, line);
+            // Proceed to next line
+            return;
+        }
 
-            // Get command (e.g READ, STORE, LOAD, ...)
-            // If tokens length is only 1 and is not HALT
-            if (commandTokens.length == 1 && !commandTokens[0].equals("HALT")) {
-                // Check if command is exist
-                if (commands.containsKey(commandTokens[0])) {
-                    // Incomplete command
-                    error("incomplete command '" + line + "' in " + getFilenameWithLine(i));
-                }
+        // If current line is a branch declaration
+        if (line.startsWith(BRANCH_IDENTIFIER)) {
+            // Process branch declaration, the branches to it depend on its index
+            statement.structural = true;
+            processBranch(i, line);
+            // Proceed to next line
+            return;
+        }
 
-                // Otherwise, throw error
-                error("unknown command '" + commandTokens[0] + "' in " + getFilenameWithLine(i));
-            }
+        // Using other commands
+        // Split the line by space
+        String[] commandTokens = line.split(" ", 2);
 
-            // Check if the command exist
+        // Get command (e.g READ, STORE, LOAD, ...)
+        // If tokens length is only 1 and is not HALT
+        if (commandTokens.length == 1 && hasOperand(commandTokens[0])) {
+            // Check if command is exist
             if (commands.containsKey(commandTokens[0])) {
-                // Process command
-                Status status = processCommand(i, commandTokens);
-
-                // Check if the status is done
-                if (status == Status.BREAK) {
-                    // Break the loop
-                    break;
-                } else if (status == Status.CONTINUE) {
-                    // Proceed to next line
-                    continue;
-                }
-                // Proceed to next line
-                continue;
+                // Incomplete command
+                error("incomplete command '" + line + "' in " + getFilenameWithLine(i));
             }
 
             // Otherwise, throw error
             error("unknown command '" + commandTokens[0] + "' in " + getFilenameWithLine(i));
         }
 
-        // If the instruction doesn't have a halt instruction
-        // Automatically add a HALT instruction
-        if (!hasHalt) {
-            // Add a HALT
-            output.add(commands.get("HALT") + "00");
+        // Check if the command exist
+        if (commands.containsKey(commandTokens[0])) {
+            // Process command
+            processCommand(i, commandTokens);
+            // Proceed to next line
+            return;
+        }
+
+        // Otherwise, throw error
+        error("unknown command '" + commandTokens[0] + "' in " + getFilenameWithLine(i));
+    }
+
+    /**
+     * Set whether the compilation statistics should be printed
+     *
+     * @param quiet true to compile silently
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Set the number of iterations of an unrolled loop body
+     *
+     * @param factor iterations, 1 to not unroll the loops
+     */
+    public void setUnrollFactor(int factor) {
+        this.unrollFactor = factor;
+    }
+
+    /**
+     * Set the largest number of words, code and data, of a program with unrolled loops
+     *
+     * @param words number of words, 0 for the words of the program and half of the words it leaves free
+     */
+    public void setUnrollBudget(int words) {
+        this.unrollBudget = words;
+    }
+
+    /**
+     * Set the execution profile to lay out the basic blocks with. The profile
+     * must be recorded from the program compiled without a profile.
+     *
+     * @param profile the profile, null to keep the code order
+     */
+    public void setProfile(SmpProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Set the table of the cheapest replacements of short instruction sequences
+     *
+     * @param rewrites the table, the one packaged with the compiler by default, null to not rewrite
+     */
+    public void setRewriteTable(SmpRewriteTable rewrites) {
+        this.rewrites = rewrites;
+    }
+
+    /**
+     * Set the largest number of instructions the compiler runs to find the
+     * output of the part of the program that reads no input
+     *
+     * @param steps instructions, 0 to not run the program at compile time
+     */
+    public void setEvaluationLimit(long steps) {
+        this.evaluationLimit = steps;
+    }
+
+    /**
+     * Check if the last compilation laid out the blocks with the profile
+     *
+     * @return false if there is no profile or it doesn't match the program
+     */
+    public boolean isProfileApplied() {
+        return profileApplied;
+    }
+
+    /**
+     * Get the compilation time of the last compilation
+     *
+     * @return time in milliseconds
+     */
+    public long getCompilationTime() {
+        return compilationTime;
+    }
+
+    /**
+     * Get the number of lines of the last compiled output
+     *
+     * @return number of lines
+     */
+    public int getOutputSize() {
+        return output.size();
+    }
+
+    // ===================== Utility methods ===================== //
+
+    /**
+     * Process expression
+     *
+     * @param i line index
+     * @param line current line
+     */
+    private void processExpression(int i, String line) throws SmpCompileException {
+        // Remove all spaces
+        line = line.replaceAll(" ", "");
+
+        // Split by equal sign
+        String[] splits = line.split("=", 2);
+        // Get variable name
+        String varName = splits[0];
+        // Parse the expression with operator precedence
+        SmpExpression expression = parseExpression(i, splits[1]);
+
+        // Store the result in an array element (e.g A[I] = B + 1)
+        if (varName.contains("[")) {
+            processElementStore(i, parseElement(i, varName), expression);
+            return;
+        }
+
+        // Add variable if not exist
+        if (getVariable(varName) == null) {
+            // Add var name to the list
+            addVariable(varName, "0");
+        }
+
+        // An array is only assigned by element
+        if (getVariable(varName).elements != null) {
+            error("array '" + varName + "' needs an index in " + getFilenameWithLine(i));
+        }
+
+        // Evaluate the expression into the accumulator
+        processSubExpression(i, expression, 0);
+        // Store the result
+        emit("STORE", getVariable(varName));
+    }
+
+    /**
+     * Generate the instructions that leave the value of the expression in the accumulator
+     *
+     * @param i line index
+     * @param expression expression tree
+     * @param depth nesting depth, used to pick a temporary variable
+     */
+    private void processSubExpression(int i, SmpExpression expression, int depth) throws SmpCompileException {
+        // Operand (e.g B)
+        if (expression.isOperand()) {
+            emit("LOAD", getOperand(i, expression));
+            return;
+        }
+
+        // Array element (e.g A[I]), loaded at the array plus the index register
+        if (expression.isElement()) {
+            SmpVariable array = getArray(i, expression);
+
+            processIndex(i, expression.index, depth);
+            emit("LOADX", array);
+            return;
+        }
+
+        // Get the operator's instruction
+        String command = getOperatorCommand(expression.operator);
+
+        // Right side is an operand (e.g B * C)
+        if (expression.right.isOperand()) {
+            processSubExpression(i, expression.left, depth);
+            emit(command, getOperand(i, expression.right));
+            return;
+        }
+
+        // Left side is an operand and the sides can be swapped (e.g B + C * D)
+        if (expression.left.isOperand() && expression.isCommutative()) {
+            processSubExpression(i, expression.right, depth);
+            emit(command, getOperand(i, expression.left));
+            return;
+        }
+
+        // Otherwise, keep the right side in a temporary (e.g B - C * D)
+        SmpVariable temporary = getTemporary(depth);
+
+        processSubExpression(i, expression.right, depth);
+        emit("STORE", temporary);
+        processSubExpression(i, expression.left, depth + 1);
+        emit(command, temporary);
+    }
+
+    /**
+     * Parse an expression
+     *
+     * @param i line index
+     * @param text expression text
+     * @return expression tree
+     */
+    private SmpExpression parseExpression(int i, String text) throws SmpCompileException {
+        try {
+            return SmpExpression.parse(text);
+        } catch (SmpCompileException e) {
+            error(e.getMessage() + " in " + getFilenameWithLine(i));
+            return null;
+        }
+    }
+
+    /**
+     * Get the variable of an expression operand, numbers are stored as constants
+     *
+     * @param i line index
+     * @param operand operand expression
+     * @return variable
+     */
+    private SmpVariable getOperand(int i, SmpExpression operand) throws SmpCompileException {
+        // Number (e.g 10)
+        if (operand.isNumber()) {
+            return getConstant(Integer.parseInt(operand.operand));
+        }
+
+        // Find and get the variable
+        SmpVariable v = getVariable(operand.operand);
+
+        // Check if the variable is not found
+        if (v == null) {
+            // Throw error
+            error("variable '" + operand.operand + "' not found in " + getFilenameWithLine(i));
+        }
+
+        // Check if the variable is an array without an index
+        if (v.elements != null) {
+            error("array '" + operand.operand + "' needs an index in " + getFilenameWithLine(i));
+        }
+
+        return v;
+    }
+
+    /**
+     * Generate the instructions that store the value of an expression in an array element
+     *
+     * @param i line index
+     * @param element array element (e.g A[I])
+     * @param value expression tree
+     */
+    private void processElementStore(int i, SmpExpression element, SmpExpression value) throws SmpCompileException {
+        SmpVariable array = getArray(i, element);
+
+        // Index operand (e.g A[I] = B + C), the value may load other elements before it
+        if (element.index.isOperand()) {
+            processSubExpression(i, value, 0);
+            processIndex(i, element.index, 0);
+            emit("STOREX", array);
+            return;
+        }
+
+        // Otherwise, keep the index in a temporary (e.g A[I + 1] = B)
+        SmpVariable temporary = getTemporary(0);
+
+        processSubExpression(i, element.index, 0);
+        emit("STORE", temporary);
+        processSubExpression(i, value, 1);
+        emitIndex(temporary);
+        emit("STOREX", array);
+    }
+
+    /**
+     * Generate the instructions that load an index into the index register
+     *
+     * @param i line index
+     * @param index index expression
+     * @param depth nesting depth, used to pick a temporary variable
+     */
+    private void processIndex(int i, SmpExpression index, int depth) throws SmpCompileException {
+        // Index operand (e.g I or 3)
+        if (index.isOperand()) {
+            emitIndex(getOperand(i, index));
+            return;
+        }
+
+        // Otherwise, evaluate it into a temporary (e.g I + 1)
+        SmpVariable temporary = getTemporary(depth);
+
+        processSubExpression(i, index, depth);
+        emit("STORE", temporary);
+        emitIndex(temporary);
+    }
+
+    /**
+     * Load a variable into the index register, unless the line already did
+     *
+     * @param v the variable
+     */
+    private void emitIndex(SmpVariable v) {
+        // Only temporaries change within a line
+        if (v == indexed && !v.name.startsWith("$")) {
+            return;
+        }
+
+        emit("INDEX", v);
+        indexed = v;
+    }
+
+    /**
+     * Get the array of an element, checking a number index against its size
+     *
+     * @param i line index
+     * @param element array element (e.g A[I])
+     * @return array
+     */
+    private SmpVariable getArray(int i, SmpExpression element) throws SmpCompileException {
+        // Find and get the array
+        SmpVariable v = getVariable(element.operand);
+
+        // Check if the array is not found
+        if (v == null) {
+            error("array '" + element.operand + "' not found in " + getFilenameWithLine(i));
+        }
+
+        // Check if the variable is an array
+        if (v.elements == null) {
+            error("variable '" + element.operand + "' is not an array in " + getFilenameWithLine(i));
+        }
+
+        // Check if a number index is outside the array
+        if (element.index.isNumber() && Integer.parseInt(element.index.operand) >= v.elements.length) {
+            error("index " + element.index.operand + " is out of range of '" + element.operand + "' in " + getFilenameWithLine(i));
+        }
+
+        return v;
+    }
+
+    /**
+     * Parse an array element
+     *
+     * @param i line index
+     * @param text element text (e.g A[I])
+     * @return element
+     */
+    private SmpExpression parseElement(int i, String text) throws SmpCompileException {
+        SmpExpression element = parseExpression(i, text);
+
+        if (!element.isElement()) {
+            error("invalid array element '" + text + "' in " + getFilenameWithLine(i));
+        }
+
+        return element;
+    }
+
+    /**
+     * Get the constant of a value
+     *
+     * @param value the value
+     * @return variable
+     */
+    private SmpVariable getConstant(int value) {
+        // Get constant name
+        String name = "#" + value;
+
+        // Add the constant if not exist
+        if (getVariable(name) == null) {
+            addVariable(name, name.substring(1));
+        }
+
+        return getVariable(name);
+    }
+
+    /**
+     * Get the temporary variable of an expression depth
+     *
+     * @param depth nesting depth
+     * @return variable
+     */
+    private SmpVariable getTemporary(int depth) {
+        // Get temporary name
+        String name = "$" + depth;
+
+        // Add the temporary if not exist
+        if (getVariable(name) == null) {
+            addVariable(name, "0");
+        }
+
+        return getVariable(name);
+    }
+
+    /**
+     * Get the instruction of an arithmetic operator
+     *
+     * @param operator The operator (e.g +)
+     * @return command name
+     */
+    private String getOperatorCommand(String operator) {
+        switch (operator) {
+            case "+":
+                return "ADD";
+            case "-":
+                return "SUBTRACT";
+            case "*":
+                return "MULTIPLY";
+            case "/":
+                return "DIVIDE";
+            default:
+                return "MODULO";
+        }
+    }
+
+    /**
+     * Add an instruction whose operand is a variable
+     *
+     * @param command command name (e.g LOAD)
+     * @param variable the variable
+     */
+    private void emit(String command, SmpVariable variable) {
+        code.add(new SmpInstruction(commands.get(command), variable, null));
+    }
+
+    /**
+     * Add a branch instruction
+     *
+     * @param command command name (e.g BRANCHNEG)
+     * @param label the branch target
+     */
+    private void emit(String command, SmpLabel label) {
+        code.add(new SmpInstruction(commands.get(command), null, label));
+    }
+
+    /**
+     * Process a structured IF, ELSE, WHILE or END statement
+     *
+     * @param i line index
+     * @param line current line
+     */
+    private void processBlock(int i, String line) throws SmpCompileException {
+        // Get keyword and condition
+        String[] tokens = line.split(" ", 2);
+        String keyword = tokens[0];
+        String condition = tokens.length > 1 ? tokens[1] : "";
+
+        // IF condition
+        if (keyword.equals("IF")) {
+            SmpBlock block = new SmpBlock("IF", i, condition);
+            block.next = new SmpLabel("else");
+            block.end = new SmpLabel("end");
+
+            // Skip the body if the condition is false
+            processCondition(i, condition, false, block.next);
+            blocks.push(block);
+            return;
+        }
+
+        // WHILE condition
+        if (keyword.equals("WHILE")) {
+            SmpBlock block = new SmpBlock("WHILE", i, condition);
+            block.next = new SmpLabel("body");
+            block.end = new SmpLabel("test");
+
+            // Test the condition at the bottom, so every iteration takes a single branch
+            emit("BRANCH", block.end);
+            defineLabel(block.next);
+            blocks.push(block);
+            return;
+        }
+
+        // ELSE and END need an open block
+        if (blocks.isEmpty() || !condition.isEmpty()) {
+            error("unexpected '" + line + "' in " + getFilenameWithLine(i));
+        }
+
+        SmpBlock block = blocks.peek();
+
+        // ELSE
+        if (keyword.equals("ELSE")) {
+            // Check if it's in an IF block
+            if (!block.type.equals("IF")) {
+                error("unexpected '" + line + "' in " + getFilenameWithLine(i));
+            }
+
+            // Skip the else body at the end of the then body
+            emit("BRANCH", block.end);
+            defineLabel(block.next);
+            block.type = "ELSE";
+            return;
+        }
+
+        // END
+        blocks.pop();
+
+        if (block.type.equals("WHILE")) {
+            // Loop back while the condition is true
+            defineLabel(block.end);
+            processCondition(block.line, block.condition, true, block.next);
+            return;
+        }
+
+        // End of the IF or ELSE
+        if (block.type.equals("IF")) {
+            defineLabel(block.next);
+        }
+
+        defineLabel(block.end);
+    }
+
+    /**
+     * Generate the shortest subtract-and-branch sequence of a condition
+     *
+     * ------------ Sequences: -------------
+     *  L <  R   LOAD L, SUBTRACT R, BRANCHNEG
+     *  L <= R   LOAD L, SUBTRACT R, BRANCHNEG, BRANCHZERO
+     *  L >  R   LOAD R, SUBTRACT L, BRANCHNEG
+     *  L >= R   LOAD R, SUBTRACT L, BRANCHNEG, BRANCHZERO
+     *  L == R   LOAD L, SUBTRACT R, BRANCHZERO
+     *  L != R   LOAD L, SUBTRACT R, BRANCHZERO over a BRANCH
+     * ------------------------------------
+     *
+     * @param i line index
+     * @param condition condition (e.g A < B)
+     * @param jumpIf branch when the condition is this value
+     * @param target branch target
+     */
+    private void processCondition(int i, String condition, boolean jumpIf, SmpLabel target) throws SmpCompileException {
+        // Split the condition by its relational operator
+        Matcher m = CONDITION.matcher(condition.replaceAll(" ", ""));
+
+        if (!m.matches()) {
+            error("invalid condition '" + condition + "' in " + getFilenameWithLine(i));
+        }
+
+        SmpExpression left = parseExpression(i, m.group(1));
+        SmpExpression right = parseExpression(i, m.group(3));
+        String relation = m.group(2);
+
+        // Branch when the condition is false
+        if (!jumpIf) {
+            relation = negate(relation);
+        }
+
+        // Greater than is less than with the sides swapped
+        if (relation.startsWith(">")) {
+            SmpExpression swap = left;
+            left = right;
+            right = swap;
+            relation = "<" + relation.substring(1);
+        }
+
+        // Equality doesn't depend on the order, avoid a temporary if possible
+        if (!relation.startsWith("<") && !right.isOperand() && left.isOperand()) {
+            SmpExpression swap = left;
+            left = right;
+            right = swap;
+        }
+
+        // Get the difference of both sides in the accumulator
+        if (right.isNumber() && Integer.parseInt(right.operand) == 0) {
+            processSubExpression(i, left, 0);
+        } else {
+            processSubExpression(i, new SmpExpression("-", left, right), 0);
+        }
+
+        switch (relation) {
+            case "<":
+                emit("BRANCHNEG", target);
+                break;
+            case "<=":
+                emit("BRANCHNEG", target);
+                emit("BRANCHZERO", target);
+                break;
+            case "==":
+                emit("BRANCHZERO", target);
+                break;
+            default:
+                SmpLabel skip = new SmpLabel("skip");
+                emit("BRANCHZERO", skip);
+                emit("BRANCH", target);
+                defineLabel(skip);
+                break;
+        }
+    }
+
+    /**
+     * Get the relational operator of the negated condition
+     *
+     * @param relation relational operator (e.g <)
+     * @return negated operator (e.g >=)
+     */
+    private static String negate(String relation) {
+        switch (relation) {
+            case "<":
+                return ">=";
+            case "<=":
+                return ">";
+            case ">":
+                return "<=";
+            case ">=":
+                return "<";
+            case "==":
+                return "!=";
+            default:
+                return "==";
+        }
+    }
+
+    /**
+     * Point the label to the next instruction
+     *
+     * @param label the label
+     */
+    private void defineLabel(SmpLabel label) {
+        label.index = code.size();
+        statement.labels.put(label, label.index - statement.start);
+        // The branches to the label may come with another index
+        indexed = null;
+    }
+
+    /**
+     * Forward branches that land on an unconditional BRANCH to its final target,
+     * and replace a BRANCH to a HALT with the HALT itself
+     */
+    private void processJumps() {
+        // Look up the opcodes once, not for every instruction
+        int branch = commands.get("BRANCH");
+        int halt = commands.get("HALT");
+
+        for (SmpInstruction instruction : code) {
+            // Skip non-branch instructions
+            if (instruction.label == null) {
+                continue;
+            }
+
+            // Follow the chain of unconditional branches, at most once around the program
+            SmpLabel target = instruction.label;
+
+            for (int n = 0; n < code.size() && target.index >= 0 && target.index < code.size(); n++) {
+                SmpInstruction next = code.get(target.index);
+
+                if (next.opcode != branch || next.label == target) {
+                    break;
+                }
+
+                target = next.label;
+            }
+
+            instruction.label = target;
+
+            // A jump to a HALT is a HALT
+            if (instruction.opcode == branch && target.index >= 0 && target.index < code.size()
+                    && code.get(target.index).opcode == halt) {
+                instruction.opcode = halt;
+                instruction.label = null;
+            }
+        }
+    }
+
+    /**
+     * Remove the instructions that can never be reached and the branches to
+     * the next instruction, until there is nothing left to remove
+     */
+    private void processDeadCode() {
+        boolean changed = true;
+
+        while (changed) {
+            // Build the control-flow graph
+            SmpFlowGraph graph = new SmpFlowGraph(code, object ? getExportedLabels() : new ArrayList<SmpLabel>());
+            // Flag if an instruction is removed
+            boolean[] removed = new boolean[code.size()];
+            changed = false;
+
+            // Remove the unreachable blocks
+            for (SmpBasicBlock block : graph.blocks) {
+                if (!block.reachable) {
+                    for (int i = block.start; i < block.end; i++) {
+                        removed[i] = true;
+                        changed = true;
+                    }
+                }
+            }
+
+            // Remove the branches that land on the next instruction
+            for (int i = 0; i < code.size(); i++) {
+                SmpLabel label = code.get(i).label;
+
+                if (!removed[i] && label != null && label.index == i + 1 && !code.get(i).isSpawn()) {
+                    removed[i] = true;
+                    changed = true;
+                }
+            }
+
+            // Compact the code
+            if (changed) {
+                removeInstructions(removed);
+            }
+        }
+    }
+
+    /**
+     * Run the instructions that don't depend on the input at compile time and
+     * replace them with the values they write, continuing with the rest of
+     * the program from the state they leave. Cores and linked modules change
+     * the variables while the program runs, so neither is evaluated.
+     */
+    private void processEvaluation() {
+        values.clear();
+
+        if (evaluationLimit <= 0 || object || code.stream().anyMatch(SmpInstruction::isSpawn)) {
+            return;
         }
 
-        // Process operands
-        processOperands();
+        SmpPartialEvaluator evaluator = new SmpPartialEvaluator(code, this::getConstant, evaluationLimit, SmpMemory.DEFAULT_SIZE);
 
-        // Calculate compilation time
-        compilationTime = System.currentTimeMillis() - compilationTime;
+        // The instructions that ran may not be reachable any more
+        if (evaluator.specialize(values)) {
+            processDeadCode();
+        }
+    }
 
-        // Output file
-        if (generateOutput(output)) {
-            // Print output statistics
-            printOutputStats(output, true);
+    /**
+     * Unroll the counted loops with a constant trip count while the program
+     * fits in the unroll budget.
+     * Cores and STOREI may change the variables of a loop while it runs and a
+     * module doesn't know the size of the linked program, so none is unrolled.
+     */
+    private void processLoops() {
+        if (unrollFactor < 2 || object || code.stream().anyMatch(i -> i.isSpawn() || i.isIndirect())) {
+            return;
         }
+
+        new SmpLoopUnroller(code, this::getConstant, unrollFactor, unrollBudget).unroll();
     }
 
-    // ===================== Utility methods ===================== //
+    /**
+     * Replace the instruction sequences that have a cheaper equivalent in the
+     * rewrite table. It runs before the layout, so a profile of the compiled
+     * program matches the instructions the layout sees. Cores see the stores
+     * a rewrite removes, LOADI and STOREI may access the cells of a rewritten
+     * sequence and modules are branched to by other modules, so none is
+     * rewritten.
+     */
+    private void processRewrites() {
+        if (rewrites == null || object || code.stream().anyMatch(i -> i.isSpawn() || i.isIndirect())) {
+            return;
+        }
+
+        rewrites.apply(code, this::getConstant);
+    }
 
     /**
-     * Process expression
+     * Lay out the basic blocks so the successor that ran most falls through.
+     * A profile of other instructions (e.g of an edited source) is ignored,
+     * and so are programs that spawn cores and modules, whose labels are
+     * entries of other code.
      */
-    private void processExpression(int i, String line) {
-        // Remove all spaces
-        line = line.replaceAll(" ", "");
-        
-        // Split by equal sign
-        String[] splits = line.split("=", 2);
-        // Get variable name
-        String varName = splits[0];
-        // Get expression
-        String varExpression = splits[1];
-        // Split expression by plus sign and minus sign
-        String[] expressionSplits = varExpression.split("");
-        // Current variable
-        String currentVar = "";
-
-        // Parsed expression
-        List<String> expression = new ArrayList<String>();
-
-        // Loop through the expression splits
-        for (String ch : expressionSplits) {
-            // Check if the split is a plus or minus sign
-            if (ch.equals("+") || ch.equals("-")) {
-                // Add variable to the list
-                expression.add(currentVar);
-                expression.add(ch);
-                // Reset current variable
-                currentVar = "";
-                // Proceed to next split
-                continue;
-            }
+    private void processLayout() {
+        profileApplied = false;
 
-            // Otherwise, add to current variable
-            currentVar += ch;
+        if (profile == null || object || code.stream().anyMatch(SmpInstruction::isSpawn)) {
+            return;
         }
 
-        // Add the last variable
-        expression.add(currentVar);
+        SmpBlockLayout layout = new SmpBlockLayout(code, profile);
 
-        // Add variable if not exist
-        if (getVariableAddress(varName) == -1) {
-            // Add var name to the list
-            variables.add(new SmpVariable(i, varName, "0"));
+        if (layout.matches()) {
+            layout.apply();
+            profileApplied = true;
         }
-    
-        // Process expression
-        // Start at 2
-        for (int j = 2; j < expression.size(); j++) {
-            // Get expression component
-            String component = expression.get(j);
-
-            // Check if the component is not an operator
-            // Then it's a variable
-            if (!component.equals("+") && !component.equals("-")) {
-                // Get both components
-                String v1 = expression.get(j - 2); // (e.g, 5)
-                String op = expression.get(j - 1); // (e.g, +)
-                String v2 = expression.get(j); // (e.g, 10)
-
-                // Find and get the first variable's address
-                int v1Address = getVariableAddress(v1);
-                int v2Address = getVariableAddress(v2);
-
-                // Check if the variable is not found
-                if (v1Address == -1) {
-                    // Throw error
-                    error("variable '" + v1 + "' not found in " + getFilenameWithLine(i));
-                }
+    }
 
-                // Check if the variable is not found
-                if (v2Address == -1) {
-                    // Throw error
-                    error("variable '" + v2 + "' not found in " + getFilenameWithLine(i));
+    /**
+     * Remove instructions and move the labels to the next kept instruction
+     *
+     * @param removed flag if an instruction is removed
+     */
+    private void removeInstructions(boolean[] removed) {
+        // New index of every old index
+        int[] index = new int[code.size() + 1];
+        // Kept instructions
+        List<SmpInstruction> kept = new ArrayList<SmpInstruction>();
+        // Labels used by the kept instructions
+        Set<SmpLabel> labels = new HashSet<SmpLabel>();
+
+        for (int i = 0; i < code.size(); i++) {
+            index[i] = kept.size();
+
+            if (!removed[i]) {
+                kept.add(code.get(i));
+
+                if (code.get(i).label != null) {
+                    labels.add(code.get(i).label);
                 }
+            }
+        }
 
-                // Add opcodes to the output
-                output.add(commands.get("LOAD").toString());
-                output.add(commands.get(op.equals("+") ? "ADD" : "SUBTRACT").toString());
-                output.add(commands.get("STORE").toString());
+        index[code.size()] = kept.size();
+        labels.addAll(getExportedLabels());
 
-                // Add operands to operands
-                operands.add(j > 2 ? getVariableAddress(varName) : v1Address);
-                operands.add(v2Address);
-                operands.add(getVariableAddress(varName));
+        // Move every label, except the labels of other modules
+        for (SmpLabel label : labels) {
+            if (label.index >= 0) {
+                label.index = index[label.index];
             }
         }
+
+        code.clear();
+        code.addAll(kept);
     }
 
     /**
      * Post process variables and operands
      */
     private void processOperands() {
-        // Added variables in the output
-        List<Integer> addedVariables = new ArrayList<Integer>();
+        // Variables used by the code
+        Set<SmpVariable> referenced = new HashSet<SmpVariable>();
+        List<SmpVariable> used = new ArrayList<SmpVariable>();
+
+        // Find the used variables
+        for (SmpInstruction instruction : code) {
+            if (instruction.variable != null) {
+                referenced.add(instruction.variable);
+            }
+        }
 
-        // For every variable in the program
         for (SmpVariable v : variables) {
-            // Loop every operands
-            for (int i = 0; i < operands.size(); i++) {
-                // If the current operand is same as the current variable address
-                if (operands.get(i) == v.address) {
-                    // If the variable isn't in the output yet
-                    if (!addedVariables.contains(v.address)) {
-                        // Then add the variable to the output
-                        output.add(v.value);
-                        // Added variables
-                        addedVariables.add(v.address);
-                    }
+            v.address = -1;
 
-                    // New address
-                    int newAddress = output.size() - 1;
-                    // Set new address
-                    operands.set(i, newAddress);
-                }
+            // Variables of other modules have no cell here, exported ones always have
+            if ((referenced.contains(v) || object && exports.containsKey(v.name)) && !v.imported) {
+                used.add(v);
             }
         }
 
-        // Loop every operands
-        for (int i = 0; i < operands.size(); i++) {
-            // Get opcode
-            String opcode = output.get(i);
-            // Get operand
-            int operand = operands.get(i);
+        // Initial value of every data cell
+        List<String> cells = processCells(used);
 
-            // If opcode number is a branch instruction
-            if (opcode.startsWith("40") || opcode.startsWith("41") || opcode.startsWith("42")) {
-                continue;
+        relocations.clear();
+
+        // Add every instruction with its resolved operand
+        for (SmpInstruction instruction : code) {
+            // Get operand, the operands of imported symbols are set by the linker
+            int operand = 0;
+            String symbol = null;
+
+            if (instruction.variable != null) {
+                operand = instruction.variable.imported ? 0 : instruction.variable.address;
+                symbol = instruction.variable.imported ? instruction.variable.name : null;
+            } else if (instruction.label != null) {
+                operand = instruction.label.imported ? 0 : instruction.label.index;
+                symbol = instruction.label.imported ? BRANCH_IDENTIFIER + instruction.label.name : null;
+            }
+
+            // Record the operand of a module to patch it when it's linked
+            if (object && (instruction.variable != null || instruction.label != null)) {
+                relocations.add(new SmpRelocation(output.size(), symbol));
             }
-            
+
             // Set output
-            output.set(i, String.valueOf(opcode) + (operand < 10 ? "0" + operand : operand));
+            output.add(String.valueOf(instruction.opcode) + (operand < 10 ? "0" + operand : operand));
+        }
+
+        // Add the data cells
+        output.addAll(cells);
+    }
+
+    /**
+     * Set the address of every used variable, variables that are never live at
+     * the same time share a cell (interval-graph coloring of the live ranges).
+     * Arrays never share, their elements follow the scalar variables.
+     *
+     * @param used used variables in declaration order
+     * @return initial value of every data cell
+     */
+    private List<String> processCells(List<SmpVariable> used) {
+        // Initial value of every cell
+        List<String> cells = new ArrayList<String>();
+        // Scalar variables, the indexed cells of an array aren't seen by the liveness
+        List<SmpVariable> scalars = new ArrayList<SmpVariable>();
+
+        for (SmpVariable v : used) {
+            if (v.elements == null) {
+                scalars.add(v);
+            }
+        }
+
+        // Analyze the live ranges
+        SmpLiveness liveness = new SmpLiveness(code, scalars);
+        // Sort by the start of the range, keeping the declaration order on ties
+        List<SmpVariable> sorted = new ArrayList<SmpVariable>(scalars);
+        sorted.sort((a, b) -> Integer.compare(liveness.getStart(a), liveness.getStart(b)));
+        // Cells in use, ordered by the end of their current variable's range
+        PriorityQueue<SmpVariable> active = new PriorityQueue<SmpVariable>((a, b) -> Integer.compare(liveness.getEnd(a), liveness.getEnd(b)));
+        // Cells that can be reused, lowest first
+        TreeSet<Integer> free = new TreeSet<Integer>();
+        // Cores run at the same time, linked modules branch into each other and
+        // LOADI and STOREI access any cell, so the ranges of such programs don't
+        // tell when a cell is free
+        boolean spawns = object || code.stream().anyMatch(i -> i.isSpawn() || i.isIndirect());
+
+        for (SmpVariable v : sorted) {
+            // Release the cells of the ranges that ended before this one starts
+            while (!active.isEmpty() && liveness.getEnd(active.peek()) < liveness.getStart(v)) {
+                free.add(active.poll().address - code.size());
+            }
+
+            if (free.isEmpty() || spawns) {
+                // New cell, with this variable's initial value
+                v.address = code.size() + cells.size();
+                cells.add(values.getOrDefault(v, v.value));
+            } else {
+                // Reused cell, the initial value of this variable is never read
+                v.address = code.size() + free.pollFirst();
+            }
+
+            active.add(v);
         }
+
+        // Contiguous cells of every array, the evaluated value of the first element included
+        for (SmpVariable v : used) {
+            if (v.elements != null) {
+                v.address = code.size() + cells.size();
+                cells.add(values.getOrDefault(v, v.value));
+
+                for (int n = 1; n < v.elements.length; n++) {
+                    cells.add(v.elements[n]);
+                }
+            }
+        }
+
+        return cells;
     }
 
     /**
@@ -386,9 +1726,8 @@ public class SmpCompiler {
      * 
      * @param i line index
      * @param commandTokens line chunks
-     * @return Status
      */
-    private Status processCommand(int i, String[] commandTokens) {
+    private void processCommand(int i, String[] commandTokens) throws SmpCompileException {
         // Get command
         String command = commandTokens[0];
         // Get operand
@@ -399,24 +1738,21 @@ public class SmpCompiler {
             operand = commandTokens[1];
         }
 
-        // Get opcode
-        final String OPCODE = commands.get(command).toString();
-
-        // If command is HALT
-        if (command.equals("HALT")) {
-            // Add its opcode and exit the loop
-            output.add(OPCODE + "00");
-            // return break
-            return Status.BREAK;
+        // If command is HALT or FENCE
+        if (!hasOperand(command)) {
+            // Add its opcode, the program may have other exit paths after it
+            code.add(new SmpInstruction(commands.get(command), null, null));
+            // Proceed to next line
+            return;
         }
         
         // Otherwise, get value or variable name
         String OPERAND = operand.replaceAll(" ", "");
 
-        // If command is a branch
-        if (command.contains("BRANCH")) {
+        // If command is a branch or spawns a core at a label
+        if (command.contains("BRANCH") || command.equals("SPAWN")) {
             // Get branch name
-            String branchName = OPERAND.substring(1, OPERAND.length());
+            String branchName = OPERAND.length() > 0 ? OPERAND.substring(1) : "";
 
             // If branch has no identifier name
             if (branchName.length() == 0) {
@@ -424,73 +1760,183 @@ public class SmpCompiler {
                 error("branch name is missing " + getFilenameWithLine(i));
             }
 
-            // Find branch name
-            if (branches.containsKey(branchName)) {
-                // Get address
-                int addr = branches.get(branchName);
-                // Add to output
-                output.add(OPCODE + (addr < 10 ? "0" + addr : addr));
-                // Add to operand
-                operands.add(-1);
-                // Proceed to next line
-                return Status.CONTINUE;
-            }
-
-            // Flag if branch declaration is after the branch callee
-            boolean isFound = false;
-            
-            // Loop through the file next to the error
-            for (int j = i + 1, k = 0; j < program.size(); j++, k++) {
-                // Get current line
-                String line = program.get(j);
-                // Get branch name
-                String name = line.replaceAll(" ", "");
-
-                // If branch name exist after the branch line
-                if (name.startsWith(BRANCH_IDENTIFIER) && name.contains(branchName)) {
-                    // Adjust address
-                    int addr = output.size() + k;
-                    // Add to output
-                    output.add(OPCODE + (addr < 10 ? "0" + addr : addr));
-                    // Add to operand
-                    operands.add(-1);
-                    // Set found to true
-                    isFound = true;
-                    // Break the loop
-                    break;
-                }
-            }
+            // Find branch name, the declaration may be after the branch callee
+            SmpLabel label = getLabel(branchName);
 
-            // If branch declaration not found
-            if (!isFound) {
-                // Show error
-                error("branch name '" + BRANCH_IDENTIFIER + branchName + "' doesn't exist in " + getFilenameWithLine(i));
+            // Remember where it was first used
+            if (label.line == -1) {
+                label.line = i;
             }
 
+            // Add to output
+            emit(command, label);
             // Process to next line
-            return Status.CONTINUE;
+            return;
         }
 
-        // Loop through the variable
-        for (SmpVariable v : variables) {
-            // If variable name is not null and is same with the current variable
-            if (v.name != null && v.name.equals(OPERAND)) {
-                // Set vName to the address of that variable
-                OPERAND = (v.address < 10 ? "0" + v.address : v.address).toString();
-            }
+        // READ or WRITE of an array element (e.g WRITE A[I])
+        if (OPERAND.contains("[")) {
+            processElementCommand(i, command, parseElement(i, OPERAND));
+            return;
         }
 
+        // Find the variable
+        SmpVariable v = getVariable(OPERAND);
+
         // Variable not found
-        if (operand.equals(OPERAND)) {
+        if (v == null) {
             error("variable '" + OPERAND + "' not found in " + getFilenameWithLine(i));
         }
 
-        // Add opcode to output
-        output.add(OPCODE);
-        // Add operand to operands (to be incremented based on how many lines does the output sml have)
-        operands.add(Integer.parseInt(OPERAND));
-        // Return success
-        return Status.DONE;
+        // Add instruction to output
+        emit(command, v);
+    }
+
+    /**
+     * Process a READ or WRITE of an array element through a temporary
+     *
+     * @param i line index
+     * @param command The command (e.g WRITE)
+     * @param element array element (e.g A[I])
+     */
+    private void processElementCommand(int i, String command, SmpExpression element) throws SmpCompileException {
+        // WRITE the element from a temporary
+        if (command.equals("WRITE")) {
+            processSubExpression(i, element, 0);
+            emit("STORE", getTemporary(0));
+            emit("WRITE", getTemporary(0));
+            return;
+        }
+
+        // Only READ and WRITE take an element
+        if (!command.equals("READ")) {
+            error(command + " can't take an array element in " + getFilenameWithLine(i));
+        }
+
+        SmpVariable array = getArray(i, element);
+
+        // READ into a temporary and store it in the element, after the index is kept
+        if (element.index.isOperand()) {
+            emit("READ", getTemporary(0));
+            emit("LOAD", getTemporary(0));
+            processIndex(i, element.index, 0);
+        } else {
+            processIndex(i, element.index, 0);
+            emit("READ", getTemporary(1));
+            emit("LOAD", getTemporary(1));
+        }
+
+        emit("STOREX", array);
+    }
+
+    /**
+     * Check if the command takes an operand
+     * 
+     * @param command The command (e.g LOAD)
+     * @return false for HALT and FENCE
+     */
+    private boolean hasOperand(String command) {
+        return !command.equals("HALT") && !command.equals("FENCE");
+    }
+
+    /**
+     * Process an IMPORT or EXPORT of a branch (e.g @loop) or a variable
+     * 
+     * @param i line index
+     * @param line current line
+     */
+    private void processSymbol(int i, String line) throws SmpCompileException {
+        // Get the keyword and the symbol
+        String[] tokens = line.split(" ", 2);
+        String symbol = tokens.length > 1 ? tokens[1].replaceAll(" ", "") : "";
+
+        // Check if the symbol is missing
+        if (symbol.isEmpty() || symbol.equals(BRANCH_IDENTIFIER)) {
+            error("incomplete command '" + line + "' in " + getFilenameWithLine(i));
+        }
+
+        // EXPORT, the symbol may be declared after it
+        if (tokens[0].equals("EXPORT")) {
+            if (exports.containsKey(symbol)) {
+                error("'" + symbol + "' already exported " + getFilenameWithLine(i));
+            }
+
+            exports.put(symbol, i);
+            return;
+        }
+
+        // IMPORT of a branch, it may be used before
+        if (symbol.startsWith(BRANCH_IDENTIFIER)) {
+            SmpLabel label = getLabel(symbol.substring(1));
+
+            if (label.index != -1 || label.imported) {
+                error("branch '" + symbol + "' already exist " + getFilenameWithLine(i));
+            }
+
+            label.imported = true;
+            label.line = i;
+            imports.add(symbol);
+            return;
+        }
+
+        // IMPORT of a variable, it must be imported before it's used
+        if (getVariable(symbol) != null) {
+            error("variable '" + symbol + "' already exist " + getFilenameWithLine(i));
+        }
+
+        addVariable(symbol, "0");
+        getVariable(symbol).imported = true;
+        imports.add(symbol);
+    }
+
+    /**
+     * Check that imported symbols are only in modules and that every exported
+     * symbol is declared in the module
+     */
+    private void processLinkage() throws SmpCompileException {
+        // Imported symbols are only resolved by the linker
+        if (!object) {
+            for (SmpLabel label : branches.values()) {
+                if (label.imported) {
+                    error("'" + BRANCH_IDENTIFIER + label.name + "' is imported, compile with --object and link it " + getFilenameWithLine(label.line));
+                }
+            }
+
+            for (SmpVariable v : variables) {
+                if (v.imported) {
+                    error("'" + v.name + "' is imported, compile with --object and link it " + getFilenameWithLine(v.line));
+                }
+            }
+        }
+
+        for (Map.Entry<String, Integer> export : exports.entrySet()) {
+            String symbol = export.getKey();
+            boolean isBranch = symbol.startsWith(BRANCH_IDENTIFIER);
+            SmpLabel label = isBranch ? branches.get(symbol.substring(1)) : null;
+            SmpVariable v = isBranch ? null : getVariable(symbol);
+
+            // Check if the symbol is declared in this module
+            if (isBranch ? label == null || label.index == -1 : v == null || v.imported) {
+                error("exported '" + symbol + "' doesn't exist in " + getFilenameWithLine(export.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Get the exported branches
+     * 
+     * @return labels
+     */
+    private List<SmpLabel> getExportedLabels() {
+        List<SmpLabel> labels = new ArrayList<SmpLabel>();
+
+        for (String symbol : exports.keySet()) {
+            if (symbol.startsWith(BRANCH_IDENTIFIER)) {
+                labels.add(branches.get(symbol.substring(1)));
+            }
+        }
+
+        return labels;
     }
 
     /**
@@ -499,20 +1945,27 @@ public class SmpCompiler {
      * @param i line index
      * @param line current line
      */
-    private void processBranch(int i, String line) {
+    private void processBranch(int i, String line) throws SmpCompileException {
         // Remove all whitespace
         line = line.replaceAll(" ", "");
         // Get name
         String name = line.substring(1, line.length());
+        // Get label
+        SmpLabel label = getLabel(name);
 
         // Check if branch name already exist
-        if (branches.containsKey(name)) {
+        if (label.index != -1) {
             // Show error
             error("branch '" + BRANCH_IDENTIFIER + name + "' already exist " + getFilenameWithLine(i));
         }
 
-        // Add branch to branches
-        branches.put(name, output.size());
+        // Check if the branch is in another module
+        if (label.imported) {
+            error("branch '" + BRANCH_IDENTIFIER + name + "' is imported " + getFilenameWithLine(i));
+        }
+
+        // Point the branch to the next instruction
+        defineLabel(label);
     }
 
     /**
@@ -521,7 +1974,80 @@ public class SmpCompiler {
      * @param i line index
      * @param line current line
      */
-    private void processVariable(int i, String line) {
+    private void processVariable(int i, String line) throws SmpCompileException {
+        // Get the name and value
+        String[] declaration = parseDeclaration(i, line);
+        String vName = declaration[0];
+
+        // Check if variable has been declared
+        if (getVariable(vName) != null) {
+            error("variable '" + vName + "' already exist " + getFilenameWithLine(i));
+        }
+
+        // If not exist, then store it in the variables list
+        addVariable(vName, declaration[1]);
+        statement.declaration = getVariable(vName);
+    }
+
+    /**
+     * Process an array declaration (e.g ARRAY A[5] = 1, 2, 3), the elements without a value are 0
+     * 
+     * @param i line index
+     * @param line current line
+     */
+    private void processArray(int i, String line) throws SmpCompileException {
+        // Remove the keyword and all whitespaces
+        String text = line.substring("ARRAY".length()).replaceAll(" ", "");
+        // Split the name, the size and the values
+        Matcher m = ARRAY.matcher(text);
+
+        if (!m.matches()) {
+            error("invalid array declaration '" + line + "' in " + getFilenameWithLine(i));
+        }
+
+        String vName = m.group(1);
+        int size = Integer.parseInt(m.group(2));
+        String[] values = m.group(3) == null ? new String[0] : m.group(3).split(",", -1);
+
+        // Check if the array fits in memory
+        if (size < 1 || size > SmpMemory.DEFAULT_SIZE) {
+            error("array '" + vName + "' has an invalid size " + size + " " + getFilenameWithLine(i));
+        }
+
+        // Check if the values fit in the array
+        if (values.length > size) {
+            error("array '" + vName + "' has more than " + size + " values " + getFilenameWithLine(i));
+        }
+
+        // Check if the variable has been declared
+        if (getVariable(vName) != null) {
+            error("variable '" + vName + "' already exist " + getFilenameWithLine(i));
+        }
+
+        String[] elements = new String[size];
+
+        for (int n = 0; n < size; n++) {
+            elements[n] = n < values.length ? values[n] : "0";
+
+            // Check if the value is a valid word
+            if (!elements[n].matches("[+-]?\\d+")) {
+                error("array '" + vName + "' has an invalid value '" + elements[n] + "' " + getFilenameWithLine(i));
+            }
+        }
+
+        // The first element is the value of the array's own cell
+        addVariable(vName, elements[0]);
+        getVariable(vName).elements = elements;
+    }
+
+    /**
+     * Parse a variable declaration
+     * 
+     * @param i line index
+     * @param line current line
+     * @return name and value
+     */
+    private String[] parseDeclaration(int i, String line) throws SmpCompileException {
         // Remove all whitespaces
         line = line.replaceAll(" ", "");
 
@@ -539,39 +2065,77 @@ public class SmpCompiler {
         // Get variable value
         String vValue = tokens[1];
 
-        // Check if variable has been declared
-        // Loop through declared variables
-        for (SmpVariable v : variables) {
-            // Check if variable name already exist
-            if (v.name.equals(vName)) {
-                error("variable '" + vName + "' already exist " + getFilenameWithLine(i));
-            }
+        // Check if the value is a valid word
+        if (!vValue.matches("[+-]?\\d+")) {
+            error("variable '" + vName + "' has an invalid value '" + vValue + "' " + getFilenameWithLine(i));
         }
 
-        // If not exist, then store it in the variables list
-        variables.add(new SmpVariable(i, vName, vValue));
+        return new String[] { vName, vValue };
     }
 
     // =========================================================== //
 
     /**
-     * Get variable's address
+     * Check if the line declares a variable with a number (e.g A = 5)
      * 
-     * @param varName variable name
-     * @return address
+     * @param line current line, trimmed
+     * @return boolean
      */
-    private int getVariableAddress(String varName) {
-        // Loop through the variables
-        for (SmpVariable v : variables) {
-            // If variable name is not null and is same with the current variable
-            if (v.name != null && v.name.equals(varName)) {
-                // Return the address of that variable
-                return v.address;
-            }
+    private boolean isDeclaration(String line) {
+        if (line.startsWith(">") || line.matches("(IF|WHILE) .*|ELSE|END|ARRAY( .*)?") || !line.contains("=")) {
+            return false;
         }
 
-        // Variable not found
-        return -1;
+        // A store to an array element is an expression
+        if (line.substring(0, line.indexOf("=")).contains("[")) {
+            return false;
+        }
+
+        String value = line.substring(line.indexOf("=") + 1).replaceAll(" ", "");
+        return value.isEmpty() || value.matches("[+-]?\\d+");
+    }
+
+    /**
+     * Check if the variable is declared by the program, not a constant or a temporary
+     * 
+     * @param v the variable
+     * @return boolean
+     */
+    private static boolean isNamed(SmpVariable v) {
+        return !v.name.startsWith("#") && !v.name.startsWith("$");
+    }
+
+    /**
+     * Get variable
+     * 
+     * @param varName variable name
+     * @return variable, or null if not found
+     */
+    private SmpVariable getVariable(String varName) {
+        return variableNames.get(varName);
+    }
+
+    /**
+     * Add a variable
+     * 
+     * @param varName variable name
+     * @param value initial value
+     */
+    private void addVariable(String varName, String value) {
+        SmpVariable v = new SmpVariable(-1, varName, value);
+        v.line = current;
+        variables.add(v);
+        variableNames.put(varName, v);
+    }
+
+    /**
+     * Get a branch label, creating it if it's not declared yet
+     * 
+     * @param name branch name
+     * @return label
+     */
+    private SmpLabel getLabel(String name) {
+        return branches.computeIfAbsent(name, SmpLabel::new);
     }
 
     /**
@@ -579,9 +2143,9 @@ public class SmpCompiler {
      * 
      * @param program List of instructions
      * @return boolean
-     * @throws Exception If errors occurred when closing the file
+     * @throws IOException If errors occurred when closing the file
      */
-    private boolean generateOutput(List<String> program) throws Exception {
+    private boolean generateOutput(List<String> program) throws IOException {
         // Initialize file output name
         String outputFilename = getOutputFilename();
         // Create file
@@ -611,7 +2175,7 @@ public class SmpCompiler {
      * 
      * @return file name
      */
-    private String getOutputFilename() {
+    public String getOutputFilename() {
         // Set default output name
         String name = inputFilename;
         // Get period last index
@@ -704,12 +2268,25 @@ public class SmpCompiler {
         commands.put("WRITE", 11);
         commands.put("LOAD", 20);
         commands.put("STORE", 21);
+        commands.put("LOADI", 22);
+        commands.put("STOREI", 23);
+        commands.put("INDEX", 24);
+        commands.put("LOADX", 25);
+        commands.put("STOREX", 26);
         commands.put("ADD", 30);
         commands.put("SUBTRACT", 31);
+        commands.put("MULTIPLY", 32);
+        commands.put("DIVIDE", 33);
+        commands.put("MODULO", 34);
         commands.put("BRANCH", 40);
         commands.put("BRANCHNEG", 41);
         commands.put("BRANCHZERO", 42);
         commands.put("HALT", 43);
+        commands.put("FETCHADD", 50);
+        commands.put("LOADLINK", 51);
+        commands.put("CAS", 52);
+        commands.put("FENCE", 53);
+        commands.put("SPAWN", 54);
 
         return commands;
     }
@@ -720,14 +2297,40 @@ public class SmpCompiler {
     private void reset() {
         // Reset list
         variables.clear();
+        variableNames.clear();
         program.clear();
-        operands.clear();
+        code.clear();
+        statements.clear();
+        blocks.clear();
         branches.clear();
+        output.clear();
+        exports.clear();
+        imports.clear();
+        relocations.clear();
         // Reset properties
+        image = null;
         inputFilename = "";
         compilationTime = 0;
     }
 
+    /**
+     * Commit the event of a compile phase if it's recorded
+     *
+     * @param event the started event
+     * @param phase phase name
+     * @param size lines, instructions or words handled by the phase
+     */
+    private void commitPhase(SmpEvents.CompilePhase event, String phase, int size) {
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.source = inputFilename;
+            event.phase = phase;
+            event.size = size;
+            event.commit();
+        }
+    }
+
     /**
      * Print a line
      */
@@ -736,24 +2339,32 @@ public class SmpCompiler {
     }
 
     /**
-     * Generate a compilation error message and exit the program
+     * Raise a compilation error
+     * 
+     * @param message The message
+     * @throws SmpCompileException Always
+     */
+    private static void error(String message) throws SmpCompileException {
+        throw new SmpCompileException(message);
+    }
+
+    /**
+     * Print a compilation error message
      * 
      * @param message The message
      */
-    private static void error(String message) {
+    static void printError(String message) {
         line();
         System.err.println("Error: " + message);
         line();
-
-        System.exit(1);
     }
     
     /**
-     * Run output with Simpletron Interpreter
+     * Run the last compiled program with Simpletron Interpreter
      */
-    public void run() throws Exception {
-        // Initialize simpleton
-        SmpSimpletron simpletron = new SmpSimpletron(getOutputFilename());
+    public void run() {
+        // Initialize simpleton with the compiled image
+        SmpSimpletron simpletron = new SmpSimpletron(image);
         // Execute low-level simpletron code
         simpletron.execute();
     }
@@ -761,26 +2372,79 @@ public class SmpCompiler {
     /**
      * Main program
      * 
-     * @param args Name of the input
+     * @param args Name of the input, then the options
      * @throws Exception If an error occurred
      */
     public static void main(String[] args) throws Exception {
         // Check if args have values
         if (args.length > 0) {
-            // Instantiate the high-level simpletron compiler with the first value
-            // which is assuming an input high-level simpletron instructions
-            SmpCompiler compiler = new SmpCompiler(args[0]);
-            compiler.compile();
+            List<String> options = Arrays.asList(args);
+
+            // If the input is a directory, compile the whole tree in parallel
+            if (new File(args[0]).isDirectory()) {
+                SmpBatchCompiler.main(args);
+                return;
+            }
+
+            // Recompile and run the input on every save if "--watch" is after the input filename
+            if (options.indexOf("--watch") > 0) {
+                SmpWatcher.main(args);
+                return;
+            }
 
-            // Run simpletron if no "-" after input filename when running
-            if (!(args.length > 1 && args[1].equals("-"))) {
-                compiler.run();
+            try {
+                // Instantiate the high-level simpletron compiler with the first value
+                // which is assuming an input high-level simpletron instructions
+                SmpCompiler compiler = new SmpCompiler(args[0]);
+
+                // Compile to a relocatable object instead if "--object" is after the input filename
+                if (options.indexOf("--object") > 0) {
+                    System.out.println("Compiled to " + compiler.compileObjectFile());
+                    return;
+                }
+
+                // Rewrite with another table if "--rewrites" is after the input filename
+                int option = options.indexOf("--rewrites");
+
+                if (option > 0 && option + 1 < args.length) {
+                    compiler.setRewriteTable(SmpRewriteTable.read(Paths.get(args[option + 1])));
+                }
+
+                // Lay out the blocks with a profile if "--layout" is after the input filename
+                int layout = options.indexOf("--layout");
+
+                if (layout > 0 && layout + 1 < args.length) {
+                    compiler.setProfile(SmpProfile.read(Paths.get(args[layout + 1])));
+                }
+
+                // Compile to a JVM class instead if "--class" is after the input filename
+                if (options.indexOf("--class") > 0) {
+                    System.out.println("Compiled to " + compiler.compileClassFile());
+                    return;
+                }
+
+                compiler.compile();
+
+                // A profile of other instructions isn't used
+                if (layout > 0 && layout + 1 < args.length && !compiler.isProfileApplied()) {
+                    System.out.println("Profile " + args[layout + 1] + " doesn't match the program, the blocks are kept in code order");
+                }
+
+                // Run simpletron if no "-" after input filename when running
+                if (options.indexOf("-") <= 0) {
+                    compiler.run();
+                }
+            } catch (SmpCompileException e) {
+                // Show the error and exit
+                printError(e.getMessage());
+                System.exit(1);
             }
 
             return;
         }
 
         // Otherwise, show no input specified
-        SmpCompiler.error("no input file specified.");
+        printError("no input file specified.");
+        System.exit(1);
     }
 }
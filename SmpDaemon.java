@@ -0,0 +1,335 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-lived compile/run daemon
+ *
+ * Keeps the compiler and processor warm and serves requests over a local
+ * Unix-domain socket (default) or a loopback TCP port.
+ *
+ * ------------ Protocol: -------------
+ * Every message is a header line followed by blocks. A block is a list of
+ * lines terminated by a line with a single "."; lines starting with "." are
+ * sent with an extra "." in front.
+ *
+ *   COMPILE   + source block                -> OK + .sml block
+ *   RUN       + .sml block  + input block   -> OK + output block
+ *   EXEC      + source block + input block  -> OK + output block
+ *   QUIT                                    -> closes the connection
+ *
+ * Errors are answered with a single "ERROR message" line. A connection may
+ * send any number of requests. With --cache, runs of the same program with
+ * the same input are answered from a {@link SmpRunCache}.
+ * ------------------------------------
+ */
+public class SmpDaemon {
+    // Default socket file name in the temporary directory
+    public static final String DEFAULT_SOCKET = "smp.sock";
+    // Maximum number of instructions a single run may execute
+    private static final long CYCLE_LIMIT = 10_000_000;
+    // Address the daemon listens on
+    private final SocketAddress address;
+    // Request handlers
+    private final ExecutorService workers = newWorkers();
+    // Results of earlier runs, null to always execute
+    private SmpRunCache cache = null;
+
+    /**
+     * Initialize the daemon with the address to listen on
+     *
+     * @param address Unix-domain or loopback address
+     */
+    public SmpDaemon(SocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Answer repeated runs from a cache
+     *
+     * @param cache The cache, null to always execute
+     */
+    public void setCache(SmpRunCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Accept connections until the process is stopped
+     *
+     * @throws IOException If the socket can't be opened or another daemon listens on it
+     */
+    public void serve() throws IOException {
+        // Remove the socket file of a previous daemon that no longer accepts connections
+        if (address instanceof UnixDomainSocketAddress && Files.exists(((UnixDomainSocketAddress) address).getPath())) {
+            if (isListening(address)) {
+                throw new IOException("a daemon is already running on " + address);
+            }
+
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+
+        // Open the server socket
+        ServerSocketChannel server = address instanceof UnixDomainSocketAddress
+            ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+            : ServerSocketChannel.open();
+
+        server.bind(address);
+        System.out.println("Listening on " + address);
+
+        // Handle every connection on its own thread
+        while (true) {
+            SocketChannel client = server.accept();
+            workers.submit(() -> handle(client));
+        }
+    }
+
+    /**
+     * Check if a daemon accepts connections on an address
+     *
+     * @param address The address
+     * @return boolean
+     */
+    private static boolean isListening(SocketAddress address) {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            return channel.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Serve the requests of a single connection
+     *
+     * @param client The connection
+     */
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            String header;
+
+            // Serve requests until the client closes the connection
+            while ((header = in.readLine()) != null && !header.equals("QUIT")) {
+                try {
+                    List<String> response = process(header.trim(), in);
+                    out.write("OK\n");
+                    writeBlock(out, response);
+                } catch (SmpCompileException | RuntimeException e) {
+                    out.write("ERROR " + String.valueOf(e.getMessage()).replace('\n', ' ') + "\n");
+                }
+
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away, nothing to answer
+        }
+    }
+
+    /**
+     * Process a single request
+     *
+     * @param command Request header
+     * @param in Request body
+     * @return response block
+     * @throws SmpCompileException If the program doesn't compile
+     * @throws IOException If the request can't be read
+     */
+    private List<String> process(String command, BufferedReader in) throws SmpCompileException, IOException {
+        switch (command) {
+            // Compile source into .sml lines
+            case "COMPILE": {
+                SmpProgram program = compile(readBlock(in));
+                List<String> lines = new ArrayList<String>();
+
+                for (int i = 0; i < program.size(); i++) {
+                    lines.add(SmpMemory.format(program.getWord(i)));
+                }
+
+                return lines;
+            }
+
+            // Run .sml lines
+            case "RUN": {
+                // Read the whole request before failing on it
+                List<String> sml = readBlock(in);
+                List<String> input = readBlock(in);
+                SmpProgram program;
+
+                try {
+                    program = SmpProgram.parse(sml);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid instruction (" + e.getMessage() + ")");
+                }
+
+                return run(program, input);
+            }
+
+            // Compile and run source
+            case "EXEC": {
+                // Read the whole request before failing on it
+                List<String> source = readBlock(in);
+                List<String> input = readBlock(in);
+
+                return run(compile(source), input);
+            }
+        }
+
+        throw new IllegalArgumentException("unknown request '" + command + "'");
+    }
+
+    /**
+     * Compile the source lines
+     *
+     * @param source Source lines
+     * @return program image
+     * @throws SmpCompileException If the program doesn't compile
+     */
+    private SmpProgram compile(List<String> source) throws SmpCompileException {
+        return SmpCompiler.compileSource(String.join("\n", source));
+    }
+
+    /**
+     * Run the program with the input lines
+     *
+     * @param program Program image
+     * @param input Input lines of the READ instruction
+     * @return output lines of the WRITE instruction
+     */
+    private List<String> run(SmpProgram program, List<String> input) {
+        // Run quietly, or reuse the result of the same run
+        SmpRunResult result = cache != null
+            ? cache.run(program, input, CYCLE_LIMIT)
+            : SmpRunCache.execute(program, input, CYCLE_LIMIT);
+
+        // Report run-time faults
+        if (result.fault != null) {
+            throw new IllegalArgumentException(result.fault);
+        }
+
+        // Report runaway programs
+        if (!result.halted && result.cycles >= CYCLE_LIMIT) {
+            throw new IllegalArgumentException("cycle limit of " + CYCLE_LIMIT + " instructions exceeded");
+        }
+
+        // Split the output into lines
+        String text = result.output;
+        return text.isEmpty() ? new ArrayList<String>() : Arrays.asList(text.split("\n"));
+    }
+
+    /**
+     * Read a block terminated by a "." line
+     *
+     * @param in The input
+     * @return lines of the block
+     * @throws IOException If the block is incomplete
+     */
+    static List<String> readBlock(BufferedReader in) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            // End of block
+            if (line.equals(".")) {
+                return lines;
+            }
+
+            // Remove the escape of lines starting with a period
+            lines.add(line.startsWith(".") ? line.substring(1) : line);
+        }
+
+        throw new IOException("unexpected end of stream");
+    }
+
+    /**
+     * Write a block terminated by a "." line
+     *
+     * @param out The output
+     * @param lines lines of the block
+     * @throws IOException If the block can't be written
+     */
+    static void writeBlock(Writer out, List<String> lines) throws IOException {
+        for (String line : lines) {
+            // Escape lines starting with a period
+            out.write(line.startsWith(".") ? "." + line : line);
+            out.write("\n");
+        }
+
+        out.write(".\n");
+    }
+
+    /**
+     * Get the address from the command line options
+     *
+     * @param args --socket path or --port number
+     * @return address
+     */
+    static SocketAddress parseAddress(String[] args) {
+        // Loopback TCP port
+        if (args.length > 1 && args[0].equals("--port")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1]));
+        }
+
+        // Unix-domain socket file
+        Path path = args.length > 1 && args[0].equals("--socket")
+            ? Paths.get(args[1])
+            : Paths.get(System.getProperty("java.io.tmpdir"), DEFAULT_SOCKET);
+
+        return UnixDomainSocketAddress.of(path);
+    }
+
+    /**
+     * Create the request executor, one virtual thread per request when the
+     * runtime supports it, otherwise a pool of reusable platform threads
+     *
+     * @return executor
+     */
+    private static ExecutorService newWorkers() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Daemon entry point
+     *
+     * @param args --socket path or --port number, then --cache entries
+     * @throws Exception If an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        SmpDaemon daemon = new SmpDaemon(parseAddress(args));
+        int option = Arrays.asList(args).indexOf("--cache");
+
+        // Cache the results of repeated runs
+        if (option >= 0 && option + 1 < args.length) {
+            daemon.setCache(new SmpRunCache(Integer.parseInt(args[option + 1])));
+        }
+
+        try {
+            daemon.serve();
+        } catch (IOException e) {
+            SmpCompiler.printError(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events of the compiler and the processor
+ *
+ * Events are only filled in and committed when shouldCommit() is true, so
+ * a disabled event costs a flag check. The processor never commits an
+ * event per instruction, only one event per run with the counts.
+ */
+final class SmpEvents {
+    /**
+     * A phase of a compilation
+     */
+    @Name("smp.CompilePhase")
+    @Label("Compile Phase")
+    @Category({ "Simpletron", "Compiler" })
+    @Description("Lexing, statement processing, optimization, relocation or output of a compilation")
+    @StackTrace(false)
+    static final class CompilePhase extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Size")
+        @Description("Source lines, instructions or words handled by the phase")
+        int size;
+    }
+
+    /**
+     * A program image loaded into a processor
+     */
+    @Name("smp.ProgramLoaded")
+    @Label("Program Loaded")
+    @Category({ "Simpletron", "Processor" })
+    @StackTrace(false)
+    static final class ProgramLoaded extends Event {
+        @Label("Words")
+        int words;
+    }
+
+    /**
+     * A run of a program, from the first instruction until it stops
+     */
+    @Name("smp.Execution")
+    @Label("Execution")
+    @Category({ "Simpletron", "Processor" })
+    @Description("Program run with the number of executed instructions and how it stopped")
+    @StackTrace(false)
+    static final class Execution extends Event {
+        @Label("Instructions")
+        long instructions;
+
+        @Label("Halted")
+        boolean halted;
+
+        @Label("Fault")
+        String fault;
+    }
+
+    /**
+     * Time a READ instruction waited for its input
+     */
+    @Name("smp.InputWait")
+    @Label("Input Wait")
+    @Category({ "Simpletron", "Processor" })
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class InputWait extends Event {
+        @Label("Address")
+        int address;
+    }
+
+    private SmpEvents() {
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arithmetic expression tree
+ *
+ * ------------ Grammar: -------------
+ *  expression = term { ("+" | "-") term }
+ *  term       = factor { ("*" | "/" | "%") factor }
+ *  factor     = "(" expression ")" | variable "[" expression "]" | variable | number
+ * ------------------------------------
+ */
+class SmpExpression {
+    // Operator (e.g +), null if this is an operand
+    public String operator;
+    // Operand (e.g A or 10), null if this is an operator
+    public String operand;
+    // Left side of the operator
+    public SmpExpression left;
+    // Right side of the operator
+    public SmpExpression right;
+    // Index of an array element (e.g I of A[I]), null if this is not an element
+    public SmpExpression index;
+
+    /**
+     * Initialize an operand
+     *
+     * @param operand The operand
+     */
+    private SmpExpression(String operand) {
+        this.operand = operand;
+    }
+
+    /**
+     * Initialize an operator
+     *
+     * @param operator The operator
+     * @param left Left side
+     * @param right Right side
+     */
+    SmpExpression(String operator, SmpExpression left, SmpExpression right) {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Check if this is an operand, a variable or a number
+     *
+     * @return boolean
+     */
+    public boolean isOperand() {
+        return operator == null && index == null;
+    }
+
+    /**
+     * Check if this is an array element (e.g A[I])
+     *
+     * @return boolean
+     */
+    public boolean isElement() {
+        return index != null;
+    }
+
+    /**
+     * Check if the operator is commutative
+     *
+     * @return boolean
+     */
+    public boolean isCommutative() {
+        return "+".equals(operator) || "*".equals(operator);
+    }
+
+    /**
+     * Check if the operand is a number
+     *
+     * @return boolean
+     */
+    public boolean isNumber() {
+        return operand != null && index == null && operand.matches("\\d+");
+    }
+
+    /**
+     * Parse the expression
+     *
+     * @param expression The expression (e.g B + C * (D - 1))
+     * @return expression tree
+     * @throws SmpCompileException If the expression is not valid
+     */
+    public static SmpExpression parse(String expression) throws SmpCompileException {
+        // Remove all spaces
+        String text = expression.replaceAll(" ", "");
+
+        // Check if there is an expression at all
+        if (text.isEmpty()) {
+            throw new SmpCompileException("missing expression");
+        }
+
+        // Tokens
+        List<String> tokens = new ArrayList<String>();
+        // Current operand
+        String current = "";
+
+        // Split the expression by operators, parenthesis and brackets
+        for (String ch : text.split("")) {
+            if ("+-*/%()[]".contains(ch)) {
+                // Add the operand before the operator
+                if (!current.isEmpty()) {
+                    tokens.add(current);
+                }
+
+                tokens.add(ch);
+                current = "";
+                continue;
+            }
+
+            // Otherwise, add to current operand
+            current += ch;
+        }
+
+        // Add the last operand
+        if (!current.isEmpty()) {
+            tokens.add(current);
+        }
+
+        // Parse the tokens
+        Parser parser = new Parser(tokens);
+        SmpExpression tree = parser.parseExpression();
+
+        // Check if all tokens were used
+        if (tree == null || parser.position < tokens.size()) {
+            throw new SmpCompileException("invalid expression '" + text + "'");
+        }
+
+        return tree;
+    }
+
+    /**
+     * Recursive descent parser of the expression tokens
+     */
+    private static class Parser {
+        // Tokens being parsed
+        private final List<String> tokens;
+        // Position of the current token
+        private int position = 0;
+
+        /**
+         * Initialize the parser with the tokens
+         *
+         * @param tokens The tokens
+         */
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        /**
+         * Parse a sum or difference of terms
+         *
+         * @return expression tree, or null if invalid
+         */
+        private SmpExpression parseExpression() {
+            SmpExpression tree = parseTerm();
+
+            while (tree != null && (accept("+") || accept("-"))) {
+                String op = tokens.get(position - 1);
+                SmpExpression right = parseTerm();
+                tree = right == null ? null : new SmpExpression(op, tree, right);
+            }
+
+            return tree;
+        }
+
+        /**
+         * Parse a product, quotient or remainder of factors
+         *
+         * @return expression tree, or null if invalid
+         */
+        private SmpExpression parseTerm() {
+            SmpExpression tree = parseFactor();
+
+            while (tree != null && (accept("*") || accept("/") || accept("%"))) {
+                String op = tokens.get(position - 1);
+                SmpExpression right = parseFactor();
+                tree = right == null ? null : new SmpExpression(op, tree, right);
+            }
+
+            return tree;
+        }
+
+        /**
+         * Parse a parenthesized expression, an array element or an operand
+         *
+         * @return expression tree, or null if invalid
+         */
+        private SmpExpression parseFactor() {
+            // Parenthesized expression
+            if (accept("(")) {
+                SmpExpression tree = parseExpression();
+                return accept(")") ? tree : null;
+            }
+
+            // Check if there is an operand
+            if (position >= tokens.size() || "+-*/%()[]".contains(tokens.get(position))) {
+                return null;
+            }
+
+            SmpExpression operand = new SmpExpression(tokens.get(position++));
+
+            // Array element with its index expression
+            if (accept("[")) {
+                operand.index = parseExpression();
+                return operand.index != null && accept("]") ? operand : null;
+            }
+
+            return operand;
+        }
+
+        /**
+         * Consume the current token if it is the specified token
+         *
+         * @param token The token
+         * @return boolean
+         */
+        private boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equals(token)) {
+                position++;
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
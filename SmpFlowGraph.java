@@ -0,0 +1,140 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Control-flow graph of the compiled instructions, built from the resolved
+ * branch targets. A branch to a label of another module (index -1) leaves
+ * the code.
+ */
+class SmpFlowGraph {
+    // Basic blocks in code order
+    public final List<SmpBasicBlock> blocks = new ArrayList<SmpBasicBlock>();
+    // Basic block of every instruction
+    private final SmpBasicBlock[] blockOf;
+
+    /**
+     * Build the graph of the instructions
+     *
+     * @param code Instructions whose labels point to instruction indexes
+     */
+    public SmpFlowGraph(List<SmpInstruction> code) {
+        this(code, Collections.<SmpLabel>emptyList());
+    }
+
+    /**
+     * Build the graph of the instructions of a module
+     *
+     * @param code Instructions whose labels point to instruction indexes
+     * @param entries Labels other modules may branch to, reachable like the first instruction
+     */
+    public SmpFlowGraph(List<SmpInstruction> code, Collection<SmpLabel> entries) {
+        int size = code.size();
+        // Flag if an instruction starts a block
+        boolean[] leader = new boolean[size + 1];
+
+        // The entry, every branch target and every instruction after a branch or HALT starts a block
+        leader[0] = true;
+        leader[size] = true;
+
+        for (int i = 0; i < size; i++) {
+            SmpInstruction instruction = code.get(i);
+
+            if (instruction.label != null && instruction.label.index >= 0) {
+                leader[instruction.label.index] = true;
+            }
+
+            if (instruction.label != null || instruction.isHalt()) {
+                leader[i + 1] = true;
+            }
+        }
+
+        for (SmpLabel label : entries) {
+            leader[label.index] = true;
+        }
+
+        // Split the code into blocks
+        blockOf = new SmpBasicBlock[size];
+
+        for (int i = 0; i < size; ) {
+            int end = i + 1;
+
+            while (!leader[end]) {
+                end++;
+            }
+
+            SmpBasicBlock block = new SmpBasicBlock(i, end);
+            blocks.add(block);
+
+            for (int j = i; j < end; j++) {
+                blockOf[j] = block;
+            }
+
+            i = end;
+        }
+
+        // Connect every block to its successors
+        for (SmpBasicBlock block : blocks) {
+            SmpInstruction last = code.get(block.end - 1);
+
+            // Branch target
+            if (last.label != null && last.label.index >= 0 && last.label.index < size) {
+                connect(block, blockOf[last.label.index]);
+            }
+
+            // Next block, unless the last instruction never falls through
+            if (!last.isUnconditional() && block.end < size) {
+                connect(block, blockOf[block.end]);
+            }
+        }
+
+        // Mark the blocks reachable from the entries
+        if (!blocks.isEmpty()) {
+            Deque<SmpBasicBlock> work = new ArrayDeque<SmpBasicBlock>();
+            blocks.get(0).reachable = true;
+            work.push(blocks.get(0));
+
+            for (SmpLabel label : entries) {
+                if (label.index < size && !blockOf[label.index].reachable) {
+                    blockOf[label.index].reachable = true;
+                    work.push(blockOf[label.index]);
+                }
+            }
+
+            while (!work.isEmpty()) {
+                for (SmpBasicBlock next : work.pop().successors) {
+                    if (!next.reachable) {
+                        next.reachable = true;
+                        work.push(next);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the basic block of an instruction
+     *
+     * @param index Instruction index
+     * @return block
+     */
+    public SmpBasicBlock getBlock(int index) {
+        return blockOf[index];
+    }
+
+    /**
+     * Add an edge between two blocks
+     *
+     * @param from Source block
+     * @param to Target block
+     */
+    private static void connect(SmpBasicBlock from, SmpBasicBlock to) {
+        if (!from.successors.contains(to)) {
+            from.successors.add(to);
+            to.predecessors.add(from);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded generator of valid high-level simpletron programs
+ *
+ * The same seed and settings always give the same program. Generated
+ * programs read no input and always terminate: every loop has its own
+ * counter that only the loop increments, and branches only jump forward
+ * within their block.
+ */
+public class SmpGenerator {
+    // Comparison operators of the conditions
+    private static final String[] COMPARISONS = { "<", "<=", ">", ">=", "==", "!=" };
+    // Arithmetic operators of the expressions
+    private static final String[] OPERATORS = { "+", "-", "*", "/", "%" };
+
+    // Random numbers
+    private final Random random;
+    // Number of variables
+    private int variables = 8;
+    // Maximum number of operators of an expression
+    private int expressionSize = 4;
+    // Fraction of the statements that open an IF or WHILE block
+    private double branchDensity = 0.1;
+    // Fraction of the statements that branch to a label
+    private double labelDensity = 0.05;
+    // Maximum number of nested blocks
+    private int maxDepth = 3;
+    // Maximum number of nested WHILE loops
+    private int maxLoops = 2;
+
+    // Generated lines
+    private List<String> lines;
+    // Open blocks, innermost first
+    private Deque<Block> blocks;
+    // Top level of the program, outside of every block
+    private Block top;
+    // Number of generated loops
+    private int loops;
+    // Number of generated labels
+    private int labels;
+
+    /**
+     * An open IF or WHILE block, or the top level, and the labels branched to inside it
+     */
+    private static class Block {
+        // Loop counter, null for IF
+        String counter;
+        // Iterations of the loop
+        int iterations;
+        // Whether the IF already has an ELSE
+        boolean hasElse = false;
+        // Labels that still have to be placed in this block
+        List<String> pending = new ArrayList<String>();
+    }
+
+    /**
+     * Initialize the generator
+     *
+     * @param seed The seed
+     */
+    public SmpGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Set the number of variables
+     *
+     * @param variables The number of variables, at least 1
+     */
+    public void setVariables(int variables) {
+        this.variables = Math.max(1, variables);
+    }
+
+    /**
+     * Set the maximum number of operators of an expression
+     *
+     * @param expressionSize The number of operators, at least 1
+     */
+    public void setExpressionSize(int expressionSize) {
+        this.expressionSize = Math.max(1, expressionSize);
+    }
+
+    /**
+     * Set the fraction of the statements that open an IF or WHILE block
+     *
+     * @param branchDensity The fraction, from 0 to 1
+     */
+    public void setBranchDensity(double branchDensity) {
+        this.branchDensity = branchDensity;
+    }
+
+    /**
+     * Set the fraction of the statements that branch to a label
+     *
+     * @param labelDensity The fraction, from 0 to 1
+     */
+    public void setLabelDensity(double labelDensity) {
+        this.labelDensity = labelDensity;
+    }
+
+    /**
+     * Generate a program
+     *
+     * @param size Number of lines, the program may be a few lines longer to close its blocks
+     * @return program lines
+     */
+    public List<String> generate(int size) {
+        lines = new ArrayList<String>(size + 16);
+        blocks = new ArrayDeque<Block>();
+        top = new Block();
+        loops = 0;
+        labels = 0;
+
+        // Declare the variables and the zero used to reset the loop counters
+        add("> generated program");
+        add("Z = 0");
+
+        for (int v = 0; v < variables; v++) {
+            add("V" + v + " = " + random.nextInt(100));
+        }
+
+        // Add statements until the program is long enough
+        while (lines.size() + blocks.size() * 2 < size) {
+            double choice = random.nextDouble();
+
+            if (choice < branchDensity) {
+                openBlock();
+            } else if (choice < branchDensity + labelDensity) {
+                addBranch();
+            } else if (!blocks.isEmpty() && choice < branchDensity + labelDensity + 0.05) {
+                closeBlock();
+            } else if (!getBlock().pending.isEmpty() && random.nextInt(4) == 0) {
+                add("@" + getBlock().pending.remove(0));
+            } else if (random.nextInt(20) == 0) {
+                add("WRITE " + getVariable());
+            } else {
+                add(getVariable() + " = " + getExpression(1 + random.nextInt(expressionSize)));
+            }
+        }
+
+        // Close the remaining blocks and place the top level labels
+        while (!blocks.isEmpty()) {
+            closeBlock();
+        }
+
+        for (String label : top.pending) {
+            add("@" + label);
+        }
+
+        add("WRITE " + getVariable());
+        add("HALT");
+        return lines;
+    }
+
+    /**
+     * Open an IF or WHILE block if the nesting allows it
+     */
+    private void openBlock() {
+        if (blocks.size() >= maxDepth) {
+            return;
+        }
+
+        Block block = new Block();
+        int nestedLoops = 0;
+
+        for (Block outer : blocks) {
+            if (outer.counter != null) {
+                nestedLoops++;
+            }
+        }
+
+        if (nestedLoops < maxLoops && random.nextBoolean()) {
+            // Loop with its own counter, reset on every entry
+            block.counter = "L" + loops++;
+            block.iterations = 1 + random.nextInt(4);
+            add(block.counter + " = 0");
+            add(block.counter + " = Z");
+            add("WHILE " + block.counter + " < " + block.iterations);
+        } else {
+            add("IF " + getVariable() + " " + COMPARISONS[random.nextInt(COMPARISONS.length)] + " " + getOperand());
+        }
+
+        blocks.push(block);
+    }
+
+    /**
+     * Place the pending labels and close the innermost block
+     */
+    private void closeBlock() {
+        Block block = blocks.peek();
+
+        for (String label : block.pending) {
+            add("@" + label);
+        }
+
+        block.pending.clear();
+
+        if (block.counter != null) {
+            add(block.counter + " = " + block.counter + " + 1");
+        }
+
+        blocks.pop();
+
+        if (block.counter == null && !block.hasElse && random.nextBoolean()) {
+            // Give the IF an ELSE branch and keep it open
+            block.hasElse = true;
+            add("ELSE");
+            blocks.push(block);
+            return;
+        }
+
+        add("END");
+    }
+
+    /**
+     * Add a forward branch to a label placed later in the same block
+     */
+    private void addBranch() {
+        String label = "B" + labels++;
+        add("BRANCH @" + label);
+        getBlock().pending.add(label);
+    }
+
+    /**
+     * Add a line indented by the open blocks
+     *
+     * @param line The line
+     */
+    private void add(String line) {
+        lines.add("    ".repeat(blocks.size()) + line);
+    }
+
+    /**
+     * Get the innermost open block
+     *
+     * @return block, or the top level
+     */
+    private Block getBlock() {
+        return blocks.isEmpty() ? top : blocks.peek();
+    }
+
+    /**
+     * Get a random expression
+     *
+     * @param operators Number of operators
+     * @return expression (e.g V1 + V2 * 3)
+     */
+    private String getExpression(int operators) {
+        StringBuilder expression = new StringBuilder(getOperand());
+
+        for (int i = 0; i < operators; i++) {
+            String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+            expression.append(' ').append(operator).append(' ');
+
+            // Divide only by non-zero numbers
+            if (operator.equals("/") || operator.equals("%")) {
+                expression.append(1 + random.nextInt(9));
+            } else if (random.nextInt(8) == 0) {
+                expression.append('(').append(getOperand()).append(" + ").append(getOperand()).append(')');
+            } else {
+                expression.append(getOperand());
+            }
+        }
+
+        return expression.toString();
+    }
+
+    /**
+     * Get a random variable or number
+     *
+     * @return operand
+     */
+    private String getOperand() {
+        return random.nextInt(4) == 0 ? String.valueOf(random.nextInt(10)) : getVariable();
+    }
+
+    /**
+     * Get a random variable
+     *
+     * @return variable name
+     */
+    private String getVariable() {
+        return "V" + random.nextInt(variables);
+    }
+
+    /**
+     * Write a generated program to a file or the standard output
+     *
+     * Usage: java SmpGenerator lines [seed] [output.smp]
+     *
+     * @param args The arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            SmpCompiler.printError("usage: java SmpGenerator lines [seed] [output.smp]");
+            System.exit(1);
+        }
+
+        int size = Integer.parseInt(args[0]);
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        List<String> program = new SmpGenerator(seed).generate(size);
+
+        if (args.length > 2) {
+            try {
+                Files.write(Paths.get(args[2]), program);
+            } catch (IOException e) {
+                SmpCompiler.printError("can't write " + args[2] + ": " + e.getMessage());
+                System.exit(1);
+            }
+
+            return;
+        }
+
+        for (String line : program) {
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Memory words in int[] pages on the Java heap, the default backend
+ *
+ * A backend created from a shared segment starts with the segment's pages
+ * and copies a page on its first store, so instances of the same program
+ * only pay for the pages they write.
+ */
+public class SmpHeapBackend implements SmpMemoryBackend {
+    // Atomic access to the memory words
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(int[].class);
+    // Atomic access to the pages
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(int[][].class);
+    // Number of address bits of a word in its page
+    private static final int PAGE_BITS = 4;
+    // Number of words of a page
+    public static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // Number of words
+    private final int size;
+    // Pages of the memory words
+    private final int[][] pages;
+    // Pages of the shared segment, null if every page is private
+    private final int[][] shared;
+
+    /**
+     * Initialize the words to 0
+     *
+     * @param size Number of words
+     */
+    public SmpHeapBackend(int size) {
+        this.size = size;
+        this.pages = new int[(size + PAGE_SIZE - 1) / PAGE_SIZE][PAGE_SIZE];
+        this.shared = null;
+    }
+
+    /**
+     * Share the pages of a segment until they are written
+     *
+     * @param segment The segment
+     */
+    SmpHeapBackend(SmpSegment segment) {
+        this.size = segment.size;
+        this.pages = segment.pages.clone();
+        this.shared = segment.pages;
+    }
+
+    /**
+     * Create the shared segment of a program image
+     *
+     * @param program The program image
+     * @param size Number of words
+     * @return segment
+     * @throws IllegalArgumentException If the program doesn't fit in memory
+     */
+    static SmpSegment createSegment(SmpProgram program, int size) {
+        if (program.size() > size) {
+            throw new IllegalArgumentException("program doesn't fit in memory (" + program.size() + " words)");
+        }
+
+        SmpHeapBackend backend = new SmpHeapBackend(size);
+
+        for (int i = 0; i < program.size(); i++) {
+            backend.set(i, program.getWord(i));
+        }
+
+        return new SmpSegment(size, backend.pages);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int get(int address) {
+        return (int) WORDS.getOpaque(getPage(address), address & (PAGE_SIZE - 1));
+    }
+
+    @Override
+    public void set(int address, int word) {
+        WORDS.setOpaque(getWritablePage(address), address & (PAGE_SIZE - 1), word);
+    }
+
+    @Override
+    public int getVolatile(int address) {
+        return (int) WORDS.getVolatile(getPage(address), address & (PAGE_SIZE - 1));
+    }
+
+    @Override
+    public boolean compareAndSet(int address, int expected, int word) {
+        return WORDS.compareAndSet(getWritablePage(address), address & (PAGE_SIZE - 1), expected, word);
+    }
+
+    @Override
+    public int getAndAdd(int address, int delta) {
+        return (int) WORDS.getAndAdd(getWritablePage(address), address & (PAGE_SIZE - 1), delta);
+    }
+
+    /**
+     * Get the number of pages copied from the shared segment
+     *
+     * @return int, 0 if the backend doesn't share a segment
+     */
+    public int getCopiedPages() {
+        int copied = 0;
+
+        for (int i = 0; shared != null && i < pages.length; i++) {
+            if (getPage(i << PAGE_BITS) != shared[i]) {
+                copied++;
+            }
+        }
+
+        return copied;
+    }
+
+    /**
+     * Get the page of an address
+     *
+     * @param address A valid address
+     * @return page
+     */
+    private int[] getPage(int address) {
+        // Acquire, so a page copied by another core is seen with its words
+        return (int[]) PAGES.getAcquire(this.pages, address >>> PAGE_BITS);
+    }
+
+    /**
+     * Get the page of an address, copying it first if it's still shared
+     *
+     * @param address A valid address
+     * @return page
+     */
+    private int[] getWritablePage(int address) {
+        int index = address >>> PAGE_BITS;
+        int[] page = getPage(address);
+
+        // Private page
+        if (this.shared == null || page != this.shared[index]) {
+            return page;
+        }
+
+        // Copy on the first store, another core may have copied it first
+        int[] copy = page.clone();
+
+        if (PAGES.compareAndSet(this.pages, index, page, copy)) {
+            return copy;
+        }
+
+        return getPage(address);
+    }
+}
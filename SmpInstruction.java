@@ -0,0 +1,49 @@
+/**
+ * An instruction whose operand is resolved on relocation
+ */
+class SmpInstruction {
+    public int opcode;
+    public SmpVariable variable;
+    public SmpLabel label;
+
+    public SmpInstruction(int opcode, SmpVariable variable, SmpLabel label) {
+        this.opcode = opcode;
+        this.variable = variable;
+        this.label = label;
+    }
+
+    // HALT
+    public boolean isHalt() {
+        return opcode == 43;
+    }
+
+    // BRANCH or HALT, never falls through to the next instruction
+    public boolean isUnconditional() {
+        return opcode == 40 || opcode == 43;
+    }
+
+    // SPAWN, starts a core at its label and falls through
+    public boolean isSpawn() {
+        return opcode == 54;
+    }
+
+    // BRANCHNEG or BRANCHZERO, branches on the accumulator or falls through
+    public boolean isConditional() {
+        return opcode == 41 || opcode == 42;
+    }
+
+    // Stores, arithmetic, FETCHADD or CAS, uses the accumulator of the previous instruction
+    public boolean readsAccumulator() {
+        return opcode == 21 || opcode == 23 || opcode == 26 || opcode >= 30 && opcode <= 34 || opcode == 50 || opcode == 52 || isConditional();
+    }
+
+    // LOAD, LOADI, LOADX or LOADLINK, sets the accumulator without reading it
+    public boolean loadsAccumulator() {
+        return opcode == 20 || opcode == 22 || opcode == 25 || opcode == 51;
+    }
+
+    // LOADI or STOREI, accesses the cell whose address is in its variable
+    public boolean isIndirect() {
+        return opcode == 22 || opcode == 23;
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * A branch label with the index of the instruction it points to
+ */
+class SmpLabel {
+    public String name;
+    public int index = -1;
+    public int line = -1;
+    public boolean imported = false;
+
+    public SmpLabel(String name) {
+        this.name = name;
+    }
+}
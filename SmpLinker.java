@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Linker that combines relocatable modules into one program image
+ *
+ * The modules are laid out in order, each with its code followed by its
+ * data, so the first module is the one that starts at address 0. A source
+ * file is compiled to its .smo object only if the object is missing or
+ * older than the source, so a build only compiles the modules that changed.
+ *
+ * ------------ Usage: -------------
+ * java SmpLinker [-o prog.sml] main.smp lib.smp [other.smo ...]
+ * ------------------------------------
+ */
+public class SmpLinker {
+    // Input extension name
+    private static final String INPUT_FILE_EXT = ".smp";
+    // Output extension name
+    private static final String OUTPUT_FILE_EXT = ".sml";
+
+    // Modules in link order
+    private final List<SmpObject> modules = new ArrayList<SmpObject>();
+    // Number of modules compiled by add()
+    private int compiled = 0;
+    // Flag if the compiled and up to date modules should not be printed
+    private boolean quiet = false;
+
+    /**
+     * Add a module
+     *
+     * @param module The module
+     */
+    public void add(SmpObject module) {
+        modules.add(module);
+    }
+
+    /**
+     * Add a source or object file, compiling a source whose object is missing or older
+     *
+     * @param filename .smp source or .smo object file name
+     * @throws IOException If a file can't be read or written
+     * @throws SmpCompileException If the source has an error
+     */
+    public void add(String filename) throws IOException, SmpCompileException {
+        // Object file
+        if (!filename.endsWith(INPUT_FILE_EXT)) {
+            add(SmpObject.read(Paths.get(filename)));
+            return;
+        }
+
+        Path source = Paths.get(filename);
+        Path object = Paths.get(SmpObject.getObjectFilename(filename));
+
+        // Reuse the object if the source didn't change since it was compiled
+        if (Files.exists(object) && Files.exists(source)
+                && Files.getLastModifiedTime(object).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+            try {
+                add(SmpObject.read(object));
+                print("Up to date       : " + object);
+                return;
+            } catch (IOException e) {
+                // Compile it again
+            }
+        }
+
+        SmpCompiler compiler = new SmpCompiler(filename);
+        compiler.compileObjectFile();
+        add(SmpObject.read(object));
+        compiled++;
+        print("Compiled to      : " + object);
+    }
+
+    /**
+     * Get the number of modules compiled by add()
+     *
+     * @return int
+     */
+    public int getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Set whether the compiled and up to date modules should be printed
+     *
+     * @param quiet true to add silently
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Link the modules into one program image
+     *
+     * @return program image
+     * @throws SmpCompileException If a symbol is missing or exported twice, or the program doesn't fit in memory
+     */
+    public SmpProgram link() throws SmpCompileException {
+        int memorySize = SmpMemory.DEFAULT_SIZE;
+        int[] base = new int[modules.size()];
+        int size = 0;
+
+        if (modules.isEmpty()) {
+            throw new SmpCompileException("no modules to link");
+        }
+
+        // Lay out the modules
+        for (int m = 0; m < modules.size(); m++) {
+            base[m] = size;
+            size += modules.get(m).getWords().length;
+        }
+
+        if (size > memorySize) {
+            throw new SmpCompileException("linked program doesn't fit in memory (" + size + " words)");
+        }
+
+        // Address of every exported symbol
+        Map<String, Integer> symbols = new HashMap<String, Integer>();
+        Map<String, String> owners = new HashMap<String, String>();
+
+        for (int m = 0; m < modules.size(); m++) {
+            SmpObject module = modules.get(m);
+
+            for (Map.Entry<String, Integer> export : module.getExports().entrySet()) {
+                String owner = owners.putIfAbsent(export.getKey(), module.getName());
+
+                if (owner != null) {
+                    throw new SmpCompileException("'" + export.getKey() + "' is exported by " + owner + " and " + module.getName());
+                }
+
+                symbols.put(export.getKey(), base[m] + export.getValue());
+            }
+        }
+
+        // Copy the words and patch the relocated operands
+        int[] words = new int[size];
+
+        for (int m = 0; m < modules.size(); m++) {
+            SmpObject module = modules.get(m);
+            int[] moduleWords = module.getWords();
+
+            System.arraycopy(moduleWords, 0, words, base[m], moduleWords.length);
+
+            for (SmpRelocation relocation : module.getRelocations()) {
+                int address = base[m] + relocation.index;
+                int operand = words[address] % 100;
+
+                if (relocation.isLocal()) {
+                    operand += base[m];
+                } else if (symbols.containsKey(relocation.symbol)) {
+                    operand = symbols.get(relocation.symbol);
+                } else {
+                    throw new SmpCompileException("'" + relocation.symbol + "' imported by " + module.getName() + " isn't exported by any module");
+                }
+
+                words[address] = words[address] - words[address] % 100 + operand;
+            }
+        }
+
+        return new SmpProgram(words);
+    }
+
+    /**
+     * Print a progress line unless quiet
+     *
+     * @param message The line
+     */
+    private void print(String message) {
+        if (!quiet) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Main program
+     *
+     * @param args Output option and the modules in link order
+     * @throws Exception If an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        SmpLinker linker = new SmpLinker();
+        String output = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                // Output file name
+                if (args[i].equals("-o") && i + 1 < args.length) {
+                    output = args[++i];
+                    continue;
+                }
+
+                linker.add(args[i]);
+
+                // The program is named after the first module
+                if (output == null) {
+                    int index = args[i].lastIndexOf(".");
+                    output = (index > 0 ? args[i].substring(0, index) : args[i]) + OUTPUT_FILE_EXT;
+                }
+            }
+
+            SmpProgram program = linker.link();
+            List<String> lines = new ArrayList<String>();
+
+            for (int i = 0; i < program.size(); i++) {
+                lines.add(String.valueOf(program.getWord(i)));
+            }
+
+            Files.write(Paths.get(output), lines);
+            System.out.println("Linked to        : " + output + " (" + program.size() + " words, " + linker.getCompiled() + " module(s) compiled)");
+        } catch (SmpCompileException e) {
+            SmpCompiler.printError(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Liveness analysis of the compiled variables
+ *
+ * Computes, for every variable, the range of instructions from the first
+ * to the last one where its value may still be needed or is written. Two
+ * variables whose ranges don't overlap are never live at the same time and
+ * can share a memory cell.
+ */
+class SmpLiveness {
+    // Index of every variable
+    private final HashMap<SmpVariable, Integer> index = new HashMap<SmpVariable, Integer>();
+    // First instruction of every variable's range
+    private final int[] start;
+    // Last instruction of every variable's range
+    private final int[] end;
+    // Variables whose initial value is read
+    private final BitSet liveAtEntry;
+
+    /**
+     * Analyze the instructions
+     *
+     * @param code Instructions whose labels point to instruction indexes
+     * @param variables Variables referenced by the instructions
+     */
+    public SmpLiveness(List<SmpInstruction> code, List<SmpVariable> variables) {
+        for (int i = 0; i < variables.size(); i++) {
+            index.put(variables.get(i), i);
+        }
+
+        start = new int[variables.size()];
+        end = new int[variables.size()];
+
+        for (int i = 0; i < variables.size(); i++) {
+            start[i] = Integer.MAX_VALUE;
+            end[i] = -1;
+        }
+
+        // Build the control-flow graph
+        SmpFlowGraph graph = new SmpFlowGraph(code);
+        int blocks = graph.blocks.size();
+        HashMap<SmpBasicBlock, Integer> blockIndex = new HashMap<SmpBasicBlock, Integer>();
+
+        // Variables read before written (use) and written (def) in every block
+        BitSet[] use = new BitSet[blocks];
+        BitSet[] def = new BitSet[blocks];
+        BitSet[] in = new BitSet[blocks];
+        BitSet[] out = new BitSet[blocks];
+
+        for (int b = 0; b < blocks; b++) {
+            SmpBasicBlock block = graph.blocks.get(b);
+            blockIndex.put(block, b);
+            use[b] = new BitSet();
+            def[b] = new BitSet();
+            in[b] = new BitSet();
+            out[b] = new BitSet();
+
+            for (int i = block.start; i < block.end; i++) {
+                SmpInstruction instruction = code.get(i);
+
+                // Variables of other modules have no cell in this one
+                if (instruction.variable == null || !index.containsKey(instruction.variable)) {
+                    continue;
+                }
+
+                int v = index.get(instruction.variable);
+
+                // Every read or write is part of the range
+                extend(v, i);
+
+                if (isWrite(instruction)) {
+                    def[b].set(v);
+                } else if (!def[b].get(v)) {
+                    use[b].set(v);
+                }
+            }
+        }
+
+        // Solve in = use + (out - def), out = union of the successors' in
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (int b = blocks - 1; b >= 0; b--) {
+                BitSet live = new BitSet();
+
+                for (SmpBasicBlock next : graph.blocks.get(b).successors) {
+                    live.or(in[blockIndex.get(next)]);
+                }
+
+                out[b] = live;
+
+                BitSet entry = (BitSet) live.clone();
+                entry.andNot(def[b]);
+                entry.or(use[b]);
+
+                if (!entry.equals(in[b])) {
+                    in[b] = entry;
+                    changed = true;
+                }
+            }
+        }
+
+        // A variable live across a block boundary covers that boundary
+        for (int b = 0; b < blocks; b++) {
+            SmpBasicBlock block = graph.blocks.get(b);
+
+            for (int v = in[b].nextSetBit(0); v >= 0; v = in[b].nextSetBit(v + 1)) {
+                extend(v, block.start);
+            }
+
+            for (int v = out[b].nextSetBit(0); v >= 0; v = out[b].nextSetBit(v + 1)) {
+                extend(v, block.end - 1);
+            }
+        }
+
+        liveAtEntry = blocks > 0 ? in[0] : new BitSet();
+    }
+
+    /**
+     * Get the first instruction of the variable's range
+     *
+     * @param v The variable
+     * @return instruction index
+     */
+    public int getStart(SmpVariable v) {
+        return start[index.get(v)];
+    }
+
+    /**
+     * Get the last instruction of the variable's range
+     *
+     * @param v The variable
+     * @return instruction index
+     */
+    public int getEnd(SmpVariable v) {
+        return end[index.get(v)];
+    }
+
+    /**
+     * Check if the initial value of the variable may be read
+     *
+     * @param v The variable
+     * @return boolean
+     */
+    public boolean isLiveAtEntry(SmpVariable v) {
+        return liveAtEntry.get(index.get(v));
+    }
+
+    /**
+     * Check if the instruction writes its variable (READ or STORE)
+     *
+     * @param instruction The instruction
+     * @return boolean
+     */
+    private static boolean isWrite(SmpInstruction instruction) {
+        return instruction.opcode == 10 || instruction.opcode == 21;
+    }
+
+    /**
+     * Extend the range of the variable to the instruction
+     *
+     * @param v Variable index
+     * @param i Instruction index
+     */
+    private void extend(int v, int i) {
+        start[v] = Math.min(start[v], i);
+        end[v] = Math.max(end[v], i);
+    }
+}
@@ -0,0 +1,774 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * A counted loop with a straight-line body, whose test compares an
+ * induction variable that changes by a constant step with a loop-invariant
+ * value. The test value is A - B, or A alone.
+ */
+class SmpCountedLoop {
+    // Flag if the test is at the top and a BRANCH goes back to it, otherwise at the bottom
+    public boolean topTested;
+    // First instruction of the test
+    public int test;
+    // First and last + 1 instruction of the body
+    public int bodyStart;
+    public int bodyEnd;
+    // The back-branch
+    public int end;
+    // Operands of the test value A - B, B is null if the test value is A
+    public SmpVariable a;
+    public SmpVariable b;
+    // Flag if the test branches on zero as well as on negative
+    public boolean zero;
+    // First instruction of the induction variable update (LOAD v, ADD or SUBTRACT c, STORE v)
+    public int update;
+    // Change of the test value by one iteration
+    public int delta;
+    // Flag if the updates of the unrolled iterations can be merged into one
+    public boolean mergeable;
+}
+
+/**
+ * Unrolls the counted loops of the compiled instructions
+ *
+ * A loop whose test compares an induction variable with an invariant value
+ * runs its body several times between two tests. A guard before the
+ * unrolled body checks that the next iterations all pass the test, and the
+ * original loop runs the remaining iterations. The guard repeats the
+ * original test before it adds the steps of the next iterations to the test
+ * value, so the sum can't wrap around from a test value that already fails.
+ * If the body doesn't read the induction variable, the updates of the
+ * unrolled iterations are reduced to a single update by the whole step.
+ *
+ * A loop is only unrolled if the values of its test are constants when it's
+ * entered, it runs at least as many iterations as its unrolled body, the
+ * unrolled loop takes fewer cycles and the program still fits in the word
+ * budget, half of the words the program leaves free by default.
+ */
+class SmpLoopUnroller {
+    // Opcodes of the instructions the unroller looks at or emits
+    private static final int READ = 10;
+    private static final int LOAD = 20;
+    private static final int STORE = 21;
+    private static final int ADD = 30;
+    private static final int SUBTRACT = 31;
+    private static final int BRANCH = 40;
+    private static final int BRANCHNEG = 41;
+    private static final int BRANCHZERO = 42;
+    private static final int FETCHADD = 50;
+    private static final int CAS = 52;
+    // Largest number of iterations counted at compile time
+    private static final int MAX_TRIPS = 1000;
+
+    // Instructions whose labels point to instruction indexes
+    private final List<SmpInstruction> code;
+    // Constant of a value, added to the variables if it doesn't exist
+    private final IntFunction<SmpVariable> constants;
+    // Number of iterations of an unrolled body
+    private final int factor;
+    // Largest number of words of the program, code and data
+    private int budget;
+    // Branches that were already looked at or were created by the unroller
+    private final Set<SmpInstruction> visited = Collections.newSetFromMap(new IdentityHashMap<SmpInstruction, Boolean>());
+
+    /**
+     * Initialize the unroller
+     *
+     * @param code Instructions whose labels point to instruction indexes
+     * @param constants Constant of a value
+     * @param factor Number of iterations of an unrolled body
+     * @param budget Largest number of words of the program, code and data, 0 for half of the free words
+     */
+    public SmpLoopUnroller(List<SmpInstruction> code, IntFunction<SmpVariable> constants, int factor, int budget) {
+        this.code = code;
+        this.constants = constants;
+        this.factor = factor;
+        this.budget = budget;
+    }
+
+    /**
+     * Unroll every counted loop that fits in the budget
+     *
+     * @return number of unrolled loops
+     */
+    public int unroll() {
+        int unrolled = 0;
+        boolean changed = factor > 1;
+
+        // Leave half of the words the program doesn't use free
+        if (budget <= 0) {
+            int words = code.size() + countCells();
+            budget = words + Math.max(0, SmpMemory.DEFAULT_SIZE - words) / 2;
+        }
+
+        // Start over after every loop, the instructions moved
+        while (changed) {
+            changed = false;
+
+            for (int i = 0; i < code.size() && !changed; i++) {
+                SmpInstruction instruction = code.get(i);
+
+                // Only branches back to an earlier instruction close a loop
+                if (instruction.label == null || instruction.label.index < 0 || instruction.label.index > i
+                        || instruction.isSpawn() || !visited.add(instruction)) {
+                    continue;
+                }
+
+                SmpCountedLoop loop = instruction.opcode == BRANCH ? matchTopTested(i) : matchBottomTested(i);
+
+                if (loop != null && unroll(loop)) {
+                    unrolled++;
+                    changed = true;
+                }
+            }
+        }
+
+        return unrolled;
+    }
+
+    /**
+     * Match a loop that tests at the top and branches back to the test
+     * (e.g @loop, LOAD N, BRANCHZERO @done, body, BRANCH @loop)
+     *
+     * @param end Index of the BRANCH back
+     * @return loop, or null if it isn't a counted loop
+     */
+    private SmpCountedLoop matchTopTested(int end) {
+        SmpCountedLoop loop = new SmpCountedLoop();
+        int head = code.get(end).label.index;
+        int value = matchTestValue(loop, head);
+
+        if (value < 0 || value >= end) {
+            return null;
+        }
+
+        // One or two exit branches to the same label after the loop
+        SmpLabel exit = code.get(value).label;
+        int i = value;
+
+        for (int n = 0; n < 2 && i < end && code.get(i).isConditional() && code.get(i).label == exit; n++, i++) {
+            loop.zero |= code.get(i).opcode == BRANCHZERO;
+        }
+
+        if (i == value || exit.index < 0 || exit.index >= head && exit.index <= end) {
+            return null;
+        }
+
+        loop.topTested = true;
+        loop.end = end;
+        loop.bodyStart = i;
+        loop.bodyEnd = end;
+
+        // The loop is only entered at the test, and left by the exit branches
+        if (!matchBody(loop) || !isEnteredAt(head, head, end, -1) || loop.delta >= 0) {
+            return null;
+        }
+
+        return loop;
+    }
+
+    /**
+     * Match a loop that tests at the bottom and is entered by a jump to the
+     * test (e.g a WHILE loop: BRANCH test, body, test, BRANCHNEG body)
+     *
+     * @param end Index of the last branch back
+     * @return loop, or null if it isn't a counted loop
+     */
+    private SmpCountedLoop matchBottomTested(int end) {
+        SmpCountedLoop loop = new SmpCountedLoop();
+        SmpLabel body = code.get(end).label;
+        int last = end;
+
+        if (end < 2) {
+            return null;
+        }
+
+        // One or two branches back to the body
+        while (last > end - 1 && last > 1 && code.get(last - 1).label == body && code.get(last - 1).isConditional()) {
+            last--;
+        }
+
+        for (int i = last; i <= end; i++) {
+            if (!code.get(i).isConditional()) {
+                return null;
+            }
+
+            loop.zero |= code.get(i).opcode == BRANCHZERO;
+        }
+
+        // The test value is A - B, or A
+        int test = code.get(last - 1).opcode == SUBTRACT ? last - 2 : last - 1;
+
+        // A branch on zero only isn't counted, the test must be right before the branches
+        if (test <= body.index || code.get(end).opcode != BRANCHNEG && code.get(last).opcode != BRANCHNEG
+                || matchTestValue(loop, test) != last) {
+            return null;
+        }
+
+        loop.topTested = false;
+        loop.end = end;
+        loop.bodyStart = body.index;
+        loop.bodyEnd = test;
+
+        // The body is only entered from the test, the test is entered by a jump
+        if (body.index == 0 || !code.get(body.index - 1).isUnconditional() || !matchBody(loop)
+                || !isEnteredAt(body.index, test, end, last) || loop.delta <= 0) {
+            return null;
+        }
+
+        return loop;
+    }
+
+    /**
+     * Match the instructions of the test value, LOAD A and an optional SUBTRACT B
+     *
+     * @param loop The loop to set the operands of
+     * @param i Index of the LOAD
+     * @return index after the test value, or -1 if it doesn't match
+     */
+    private int matchTestValue(SmpCountedLoop loop, int i) {
+        SmpInstruction load = code.get(i);
+
+        if (load.opcode != LOAD || load.variable == null || i + 1 >= code.size()) {
+            return -1;
+        }
+
+        loop.test = i;
+        loop.a = load.variable;
+
+        if (code.get(i + 1).opcode == SUBTRACT) {
+            loop.b = code.get(i + 1).variable;
+            return loop.a != loop.b ? i + 2 : -1;
+        }
+
+        return i + 1;
+    }
+
+    /**
+     * Match a straight-line body that updates one operand of the test by a
+     * constant step and doesn't write the other one
+     *
+     * @param loop The loop to set the update of
+     * @return boolean
+     */
+    private boolean matchBody(SmpCountedLoop loop) {
+        // Variables written by the body, with the last write
+        List<SmpVariable> written = new ArrayList<SmpVariable>();
+        int lastWrite = -1;
+        boolean accumulator = false;
+
+        if (loop.bodyStart + 3 > loop.bodyEnd) {
+            return false;
+        }
+
+        for (int i = loop.bodyStart; i < loop.bodyEnd; i++) {
+            SmpInstruction instruction = code.get(i);
+
+            // No branches, spawns or HALTs in the body
+            if (instruction.label != null || instruction.isHalt()) {
+                return false;
+            }
+
+            // The body must not read the accumulator left by the test, it's skipped when unrolled
+            if (!accumulator && instruction.readsAccumulator()) {
+                return false;
+            }
+
+            accumulator |= instruction.loadsAccumulator() || instruction.readsAccumulator();
+
+            if (isWrite(instruction)) {
+                written.add(instruction.variable);
+                lastWrite = i;
+            }
+        }
+
+        // Find the update of the induction variable
+        for (int i = loop.bodyStart; i + 2 < loop.bodyEnd; i++) {
+            SmpVariable v = code.get(i).variable;
+            SmpInstruction step = code.get(i + 1);
+
+            if (code.get(i).opcode != LOAD || v != loop.a && v != loop.b || step.opcode != ADD && step.opcode != SUBTRACT
+                    || !isConstant(step.variable) || isWritten(step.variable)
+                    || code.get(i + 2).opcode != STORE || code.get(i + 2).variable != v) {
+                continue;
+            }
+
+            // Written once by the body, the other operand never
+            if (written.indexOf(v) != written.lastIndexOf(v) || written.contains(v == loop.a ? loop.b : loop.a)) {
+                return false;
+            }
+
+            int value = Integer.parseInt(step.variable.value);
+            int change = step.opcode == ADD ? value : -value;
+
+            loop.update = i;
+            loop.delta = v == loop.a ? change : -change;
+            // The update is the last instruction of the body and the only one that reads the variable
+            loop.mergeable = lastWrite == i + 2 && i + 3 == loop.bodyEnd && countReads(loop, v) == 1;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check that no instruction outside the test branches into the loop,
+     * except to its entry
+     *
+     * @param start First instruction of the loop
+     * @param entry Instruction the loop is entered at
+     * @param end Last instruction of the loop
+     * @param back First branch back to the start, -1 if the start is the entry
+     * @return boolean
+     */
+    private boolean isEnteredAt(int start, int entry, int end, int back) {
+        for (int i = 0; i < code.size(); i++) {
+            SmpLabel label = code.get(i).label;
+
+            if (label == null || label.index < start || label.index > end || label.index == entry) {
+                continue;
+            }
+
+            // The branches back to a bottom-tested body
+            if (label.index == start && i >= back && i <= end && back >= 0) {
+                continue;
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if any instruction writes the variable, a constant written by the program isn't constant
+     *
+     * @param v The variable
+     * @return boolean
+     */
+    private boolean isWritten(SmpVariable v) {
+        for (SmpInstruction instruction : code) {
+            if (instruction.variable == v && isWrite(instruction)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Unroll a loop by the largest factor that fits in the budget and saves cycles
+     *
+     * @param loop The loop
+     * @return true if the loop was unrolled
+     */
+    private boolean unroll(SmpCountedLoop loop) {
+        int body = loop.bodyEnd - loop.bodyStart;
+        int words = code.size() + countCells();
+        int trips = countTrips(loop);
+
+        for (int k = Math.min(factor, trips); k > 1; k--) {
+            // Check the test value of the last of k iterations: T + (k - 1) * delta,
+            // less one if the test also branches on zero
+            long guard = (long) (k - 1) * loop.delta - (loop.zero ? 1 : 0);
+            long step = (long) k * Integer.parseInt(code.get(loop.update + 1).variable.value);
+            int unrolled = loop.mergeable ? k * (body - 3) + 3 : k * body;
+            // Original test of a guard with a constant, and the branch from it to the loop at the bottom
+            int test = guard == 0 ? 0 : getBranchesEnd(loop) - getBranchesStart(loop) + (loop.topTested ? 0 : 1);
+            // Guard with its constant, the unrolled body and the branch between them and the loop
+            int size = 2 + (loop.b != null ? 1 : 0) + (guard != 0 ? 2 : 0) + test + unrolled + 1 + (loop.mergeable ? 1 : 0);
+
+            if (words + size <= budget && guard == (int) guard && step == (int) step
+                    && countCycles(loop, k, (int) guard, trips) < countCycles(loop, 1, 0, trips)) {
+                insert(loop, k, (int) guard);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Count the iterations of the loop from the values of its test when it's
+     * entered, at most MAX_TRIPS
+     *
+     * @param loop The loop
+     * @return number of iterations, 0 if the values aren't constants
+     */
+    private int countTrips(SmpCountedLoop loop) {
+        boolean[] targets = new boolean[code.size()];
+        // The instruction before the loop, which falls through or jumps to the test
+        int entry = loop.topTested ? loop.test - 1 : loop.bodyStart - 1;
+
+        for (int i = 0; i < code.size(); i++) {
+            SmpLabel label = code.get(i).label;
+
+            if (label == null || label.index < 0 || label.index >= code.size()) {
+                continue;
+            }
+
+            // The test is only entered from the instruction before the loop, or the branch back
+            if (label.index == loop.test && i != entry && i != loop.end) {
+                return 0;
+            }
+
+            targets[label.index] = true;
+        }
+
+        if (entry >= 0 && loop.topTested && (code.get(entry).isUnconditional() || code.get(entry).isHalt())) {
+            return 0;
+        }
+
+        Integer a = getEntryValue(loop.a, entry, targets);
+        Integer b = loop.b != null ? getEntryValue(loop.b, entry, targets) : Integer.valueOf(0);
+
+        if (a == null || b == null) {
+            return 0;
+        }
+
+        int value = a - b;
+        int trips = 0;
+
+        while (trips < MAX_TRIPS && passes(loop, value)) {
+            value += loop.delta;
+            trips++;
+        }
+
+        return trips;
+    }
+
+    /**
+     * Get the value of a variable at an instruction, if the instructions run
+     * before it in a straight line from a store of a constant, or from the
+     * start of the program
+     *
+     * @param v The variable
+     * @param end Index of the instruction
+     * @param targets Flags of the instructions that are branched to
+     * @return value, or null if it isn't a constant
+     */
+    private Integer getEntryValue(SmpVariable v, int end, boolean[] targets) {
+        // A variable that is never written keeps its initial value
+        if (!isWritten(v)) {
+            return getInitialValue(v);
+        }
+
+        for (int i = end; i >= 0; i--) {
+            SmpInstruction instruction = code.get(i);
+
+            // The last write, a LOAD of a variable that is never written and a STORE
+            if (instruction.variable == v && isWrite(instruction)) {
+                SmpInstruction load = i > 0 ? code.get(i - 1) : null;
+
+                if (instruction.opcode != STORE || targets[i] || load == null || load.opcode != LOAD || isWritten(load.variable)) {
+                    return null;
+                }
+
+                return getInitialValue(load.variable);
+            }
+
+            // Only reached from the instruction before it
+            if (targets[i] || i > 0 && (code.get(i - 1).isUnconditional() || code.get(i - 1).isHalt())) {
+                return null;
+            }
+        }
+
+        return getInitialValue(v);
+    }
+
+    /**
+     * Get the initial value of a variable
+     *
+     * @param v The variable
+     * @return value, or null if it isn't known at compile time
+     */
+    private static Integer getInitialValue(SmpVariable v) {
+        if (v == null || v.imported || v.elements != null) {
+            return null;
+        }
+
+        try {
+            return Integer.valueOf(v.value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if the test of the loop runs another iteration with a test value
+     *
+     * @param loop The loop
+     * @param value Test value
+     * @return boolean
+     */
+    private boolean passes(SmpCountedLoop loop, int value) {
+        boolean taken = false;
+
+        for (int i = getBranchesStart(loop); i < getBranchesEnd(loop); i++) {
+            taken |= code.get(i).opcode == BRANCHNEG ? value < 0 : value == 0;
+        }
+
+        // A top-tested loop is left by its branches, a bottom-tested loop branches back
+        return loop.topTested ? !taken : taken;
+    }
+
+    /**
+     * Estimate the cycles of the iterations of a loop unrolled k times, with
+     * the guard, the unrolled rounds and the original loop for the rest
+     *
+     * @param loop The loop
+     * @param k Number of iterations of the unrolled body, 1 for the original loop
+     * @param guard Constant added to the test value by the guard
+     * @param trips Number of iterations
+     * @return number of cycles
+     */
+    private long countCycles(SmpCountedLoop loop, int k, int guard, int trips) {
+        int value = loop.b != null ? 2 : 1;
+        int branches = getBranchesEnd(loop) - getBranchesStart(loop);
+        int body = loop.bodyEnd - loop.bodyStart;
+        int back = loop.topTested ? 1 : 0;
+
+        if (k == 1) {
+            return (long) trips * (body + value + branches + back) + value + branches;
+        }
+
+        int rounds = trips / k;
+        // Test value, the original test before a constant, the constant and the branch
+        int pass = value + (guard != 0 ? branches + 1 : 0) + 1;
+        int unrolled = (loop.mergeable ? k * (body - 3) + 3 : k * body) + back;
+
+        return (long) rounds * (pass + unrolled) + pass + (1 - back) + countCycles(loop, 1, 0, trips - rounds * k);
+    }
+
+    /**
+     * Insert the guard and the unrolled body before the loop
+     *
+     * @param loop The loop
+     * @param k Number of iterations of the unrolled body
+     * @param guard Constant added to the test value by the guard
+     */
+    private void insert(SmpCountedLoop loop, int k, int guard) {
+        List<SmpInstruction> inserted = new ArrayList<SmpInstruction>();
+        // Labels of the instructions, before they move
+        Set<SmpLabel> labels = new HashSet<SmpLabel>();
+        int start = loop.topTested ? loop.test : loop.bodyStart;
+
+        for (SmpInstruction instruction : code) {
+            if (instruction.label != null && instruction.label.index >= 0) {
+                labels.add(instruction.label);
+            }
+        }
+
+        // Entries of a bottom-tested loop, they enter at the guard
+        List<SmpLabel> entries = new ArrayList<SmpLabel>();
+
+        for (SmpLabel label : labels) {
+            if (!loop.topTested && label.index == loop.test) {
+                entries.add(label);
+            }
+        }
+
+        // The remaining iterations run the original loop from its test
+        SmpLabel remainder = new SmpLabel("remainder");
+        SmpInstruction guardBranch;
+        int guardIndex;
+
+        if (loop.topTested) {
+            // Guard, the unrolled body and a jump back to the guard, which keeps the labels of the test
+            guardIndex = start;
+            addTestValue(inserted, loop);
+
+            // Leave the loop like the original test, before the constant is added
+            for (int i = getBranchesStart(loop); i < getBranchesEnd(loop) && guard != 0; i++) {
+                inserted.add(new SmpInstruction(code.get(i).opcode, null, code.get(i).label));
+            }
+
+            guardBranch = addGuard(inserted, guard, remainder);
+            addBody(inserted, loop, k);
+            SmpInstruction back = new SmpInstruction(BRANCH, null, code.get(loop.end).label);
+            inserted.add(back);
+            visited.add(back);
+            code.get(loop.end).label = remainder;
+        } else {
+            // The unrolled body, the guard and a jump to the original test
+            SmpLabel unrolled = new SmpLabel("unrolled");
+            unrolled.index = start;
+            addBody(inserted, loop, k);
+            guardIndex = start + inserted.size();
+            addTestValue(inserted, loop);
+
+            // Run the original test if the original branches aren't taken, before the constant is added
+            if (guard != 0) {
+                SmpLabel passed = new SmpLabel("passed");
+
+                for (int i = getBranchesStart(loop); i < getBranchesEnd(loop); i++) {
+                    inserted.add(new SmpInstruction(code.get(i).opcode, null, passed));
+                }
+
+                inserted.add(new SmpInstruction(BRANCH, null, remainder));
+                passed.index = start + inserted.size();
+            }
+
+            guardBranch = addGuard(inserted, guard, unrolled);
+            inserted.add(new SmpInstruction(BRANCH, null, remainder));
+        }
+
+        // Move the labels after the inserted instructions, the labels of a top-tested loop stay on the guard
+        for (SmpLabel label : labels) {
+            if (label.index > start || label.index == start && !loop.topTested) {
+                label.index += inserted.size();
+            }
+        }
+
+        for (SmpLabel label : entries) {
+            label.index = guardIndex;
+        }
+
+        remainder.index = loop.test + inserted.size();
+        visited.add(guardBranch);
+        code.addAll(start, inserted);
+    }
+
+    /**
+     * Add the instructions of the test value, LOAD A and an optional SUBTRACT B
+     *
+     * @param inserted The inserted instructions
+     * @param loop The loop
+     */
+    private void addTestValue(List<SmpInstruction> inserted, SmpCountedLoop loop) {
+        inserted.add(new SmpInstruction(LOAD, loop.a, null));
+
+        if (loop.b != null) {
+            inserted.add(new SmpInstruction(SUBTRACT, loop.b, null));
+        }
+    }
+
+    /**
+     * Add the guard after the test value, a branch if not every one of the next iterations passes the test
+     *
+     * @param inserted The inserted instructions
+     * @param guard Constant added to the test value
+     * @param target Target of the branch
+     * @return the branch
+     */
+    private SmpInstruction addGuard(List<SmpInstruction> inserted, int guard, SmpLabel target) {
+        if (guard != 0) {
+            inserted.add(new SmpInstruction(guard > 0 ? ADD : SUBTRACT, constants.apply(Math.abs(guard)), null));
+        }
+
+        SmpInstruction branch = new SmpInstruction(BRANCHNEG, null, target);
+        inserted.add(branch);
+        return branch;
+    }
+
+    /**
+     * Get the first branch of the test
+     *
+     * @param loop The loop
+     * @return instruction index
+     */
+    private static int getBranchesStart(SmpCountedLoop loop) {
+        return loop.test + (loop.b != null ? 2 : 1);
+    }
+
+    /**
+     * Get the instruction after the last branch of the test
+     *
+     * @param loop The loop
+     * @return instruction index
+     */
+    private static int getBranchesEnd(SmpCountedLoop loop) {
+        return loop.topTested ? loop.bodyStart : loop.end + 1;
+    }
+
+    /**
+     * Add k iterations of the body, with a single update if they can be merged
+     *
+     * @param inserted The inserted instructions
+     * @param loop The loop
+     * @param k Number of iterations
+     */
+    private void addBody(List<SmpInstruction> inserted, SmpCountedLoop loop, int k) {
+        int end = loop.mergeable ? loop.update : loop.bodyEnd;
+
+        for (int n = 0; n < k; n++) {
+            for (int i = loop.bodyStart; i < end; i++) {
+                SmpInstruction instruction = code.get(i);
+                inserted.add(new SmpInstruction(instruction.opcode, instruction.variable, null));
+            }
+        }
+
+        if (loop.mergeable) {
+            SmpInstruction step = code.get(loop.update + 1);
+            int value = k * Integer.parseInt(step.variable.value);
+
+            inserted.add(new SmpInstruction(LOAD, code.get(loop.update).variable, null));
+            inserted.add(new SmpInstruction(step.opcode, constants.apply(value), null));
+            inserted.add(new SmpInstruction(STORE, code.get(loop.update).variable, null));
+        }
+    }
+
+    /**
+     * Count the instructions of the body that use the variable
+     *
+     * @param loop The loop
+     * @param v The variable
+     * @return int
+     */
+    private int countReads(SmpCountedLoop loop, SmpVariable v) {
+        int reads = 0;
+
+        for (int i = loop.bodyStart; i < loop.bodyEnd; i++) {
+            if (code.get(i).variable == v && !isWrite(code.get(i))) {
+                reads++;
+            }
+        }
+
+        return reads;
+    }
+
+    /**
+     * Count the data cells of the program, at most one per variable and one per array element
+     *
+     * @return int
+     */
+    private int countCells() {
+        Set<SmpVariable> used = new HashSet<SmpVariable>();
+        int cells = 0;
+
+        for (SmpInstruction instruction : code) {
+            if (instruction.variable != null && !instruction.variable.imported && used.add(instruction.variable)) {
+                cells += instruction.variable.getSize();
+            }
+        }
+
+        return cells;
+    }
+
+    /**
+     * Check if the variable is a constant of the compiler
+     *
+     * @param v The variable
+     * @return boolean
+     */
+    private static boolean isConstant(SmpVariable v) {
+        return v != null && v.name.startsWith("#");
+    }
+
+    /**
+     * Check if the instruction writes its variable (READ, STORE, FETCHADD or CAS)
+     *
+     * @param instruction The instruction
+     * @return boolean
+     */
+    private static boolean isWrite(SmpInstruction instruction) {
+        int opcode = instruction.opcode;
+        return instruction.variable != null && (opcode == READ || opcode == STORE || opcode == FETCHADD || opcode == CAS);
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi-core Simpletron, processors running at the same time over one memory
+ *
+ * A machine is created by the first SPAWN of a processor, which becomes
+ * core 0. Every spawned core runs on its own thread with its own program
+ * counter and accumulator. The run ends when every core has stopped, and a
+ * fault on any core stops all of them.
+ */
+public class SmpMachine {
+    // Maximum number of cores, including core 0
+    public static final int MAX_CORES = 64;
+
+    // Shared memory
+    private final SmpMemory memory;
+    // Cores by number
+    private final List<SmpProcessor> cores = new ArrayList<SmpProcessor>();
+    // Threads of the spawned cores
+    private final List<Thread> threads = new ArrayList<Thread>();
+    // First fault of any core, null if none
+    private volatile String fault = null;
+
+    /**
+     * Initialize the machine with its first core
+     *
+     * @param first The processor that becomes core 0
+     */
+    SmpMachine(SmpProcessor first) {
+        this.memory = first.getMemory();
+        this.cores.add(first);
+    }
+
+    /**
+     * Start a new core
+     *
+     * @param parent The spawning core, whose settings and accumulator are copied
+     * @param address Address of the first instruction of the new core
+     * @return false if there are too many cores or the machine stopped
+     */
+    synchronized boolean spawn(SmpProcessor parent, int address) {
+        if (cores.size() >= MAX_CORES || fault != null) {
+            return false;
+        }
+
+        // Create the core and run it on its own thread
+        SmpProcessor core = new SmpProcessor(this, cores.size(), address, parent);
+        Thread thread = new Thread(() -> run(core), "smp-core-" + cores.size());
+        thread.setDaemon(true);
+
+        cores.add(core);
+        threads.add(thread);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Wait until every spawned core has stopped
+     */
+    void join() {
+        for (int i = 0; ; i++) {
+            Thread thread;
+
+            // Cores may still be spawned while waiting
+            synchronized (this) {
+                if (i >= threads.size()) {
+                    return;
+                }
+
+                thread = threads.get(i);
+            }
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // Stop every core and keep waiting for them
+                fault(0, "interrupted");
+                i--;
+            }
+        }
+    }
+
+    /**
+     * Record the fault of a core and stop the others
+     *
+     * @param core Core number
+     * @param message The fault
+     */
+    synchronized void fault(int core, String message) {
+        if (fault == null) {
+            fault = message + " on core " + core;
+        }
+    }
+
+    /**
+     * Check if a fault stopped the machine
+     *
+     * @return boolean
+     */
+    public boolean isStopped() {
+        return fault != null;
+    }
+
+    /**
+     * Get the first fault of any core
+     *
+     * @return fault message, or null if no core faulted
+     */
+    public String getFault() {
+        return fault;
+    }
+
+    /**
+     * Get the shared memory
+     *
+     * @return SmpMemory
+     */
+    public SmpMemory getMemory() {
+        return memory;
+    }
+
+    /**
+     * Get every core, core 0 first
+     *
+     * @return cores
+     */
+    public synchronized List<SmpProcessor> getCores() {
+        return new ArrayList<SmpProcessor>(cores);
+    }
+
+    /**
+     * Run a spawned core until it stops
+     *
+     * @param core The core
+     */
+    private void run(SmpProcessor core) {
+        try {
+            core.execute();
+        } catch (RuntimeException e) {
+            fault(core.getCoreNumber(), String.valueOf(e.getMessage()));
+        }
+    }
+}
@@ -1,15 +1,26 @@
+import java.lang.invoke.VarHandle;
+
 /**
  * Simpletron Memory
  * 
+ * Words are read and written with opaque access, so a processor sharing the
+ * memory sees the stores of the others without ordering guarantees. The
+ * atomic operations are volatile and fence() orders everything else.
+ * 
+ * The words are kept by a backend: int[] pages on the heap by default, or
+ * a direct buffer or a mapped file (see {@link SmpBufferBackend}).
+ * 
  * @author Maverick G. Fabroa
  * @date September 29, 2022
  * @based on the code written by sir Dennis Durano
  */
 public class SmpMemory {
+    // Number of words of a memory created without a size
+    public static final int DEFAULT_SIZE = 100;
     // Size of memory
     private int size;
-    // Stored memory instructions
-    private String[] memory = null;
+    // Storage of the memory words
+    private final SmpMemoryBackend backend;
 
     /**
      * Set memory size with the specified size
@@ -17,30 +28,44 @@ public class SmpMemory {
      * @param size
      */
     public SmpMemory(int size) {
-        this.size = size;
-        this.memory = new String[size];
-
-        for (int i = 0; i < size; i++) {
-            this.memory[i] = "0000";
-        }
+        this(new SmpHeapBackend(size));
     }
 
     /**
      * Set memory size with the default size with data
      */
-    public SmpMemory(String[] data) {
+    public SmpMemory(int[] data) {
         this();
 
         for (int i = 0; i < data.length; i++) {
-            this.memory[i] = data[i];
+            setItem(data[i], i);
         }
     }
 
+    /**
+     * Share the pages of a segment until they are written
+     * 
+     * @param segment The segment
+     */
+    SmpMemory(SmpSegment segment) {
+        this(new SmpHeapBackend(segment));
+    }
+
+    /**
+     * Keep the memory words in a backend, with the size of the backend
+     * 
+     * @param backend The backend
+     */
+    public SmpMemory(SmpMemoryBackend backend) {
+        this.size = backend.getSize();
+        this.backend = backend;
+    }
+
     /**
      * Set memory size with the default size of 100
      */
     public SmpMemory() {
-        this(100);
+        this(DEFAULT_SIZE);
     }
 
     /**
@@ -55,13 +80,13 @@ public class SmpMemory {
     /**
      * Set memory item with the specified data and address
      * 
-     * @return int
+     * @return boolean
      */
-    public boolean setItem(String item, int address) {
+    public boolean setItem(int item, int address) {
         // Check if the address is valid
         if (isAddressValid(address)) {
             // Set the item
-            this.memory[address] = item;
+            this.backend.set(address, item);
             return true;
         }
 
@@ -71,16 +96,75 @@ public class SmpMemory {
     /**
      * Get memory item with the specified address
      * 
-     * @return String
+     * @return int, or 0 if the address is not valid
      */
-    public String getItem(int address) {
+    public int getItem(int address) {
         // Check if the address is valid
         if (isAddressValid(address)) {
             // Get the item
-            return this.memory[address];
+            return this.backend.get(address);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Get memory item with the specified address, ordered with the other atomic operations
+     * 
+     * @param address The address
+     * @return int, or 0 if the address is not valid
+     */
+    public int getItemVolatile(int address) {
+        // Check if the address is valid
+        if (isAddressValid(address)) {
+            return this.backend.getVolatile(address);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Atomically set the item if it still has the expected value
+     * 
+     * @param address The address
+     * @param expected The expected value
+     * @param item The new value
+     * @return true if the item was set, false if it had another value or the address is not valid
+     */
+    public boolean compareAndSet(int address, int expected, int item) {
+        return isAddressValid(address) && this.backend.compareAndSet(address, expected, item);
+    }
+
+    /**
+     * Atomically add to the item
+     * 
+     * @param address The address
+     * @param delta The value to add
+     * @return previous item, or 0 if the address is not valid
+     */
+    public int getAndAdd(int address, int delta) {
+        // Check if the address is valid
+        if (isAddressValid(address)) {
+            return this.backend.getAndAdd(address, delta);
         }
 
-        return null;
+        return 0;
+    }
+
+    /**
+     * Order the memory accesses before the fence with the ones after it
+     */
+    public static void fence() {
+        VarHandle.fullFence();
+    }
+
+    /**
+     * Get the storage of the memory words
+     * 
+     * @return backend
+     */
+    public SmpMemoryBackend getBackend() {
+        return this.backend;
     }
 
     /**
@@ -92,6 +176,16 @@ public class SmpMemory {
         return this.size;
     }
 
+    /**
+     * Format a memory word the way it is written in a .sml file
+     * 
+     * @param word The word
+     * @return String
+     */
+    public static String format(int word) {
+        return String.format("%04d", word);
+    }
+
     /**
      * Dump memory
      */
@@ -105,7 +199,7 @@ public class SmpMemory {
         System.out.printf("\n%5d", 0);
 
         for (int i = 0; i < this.size; i++) {
-            System.out.printf("\t%5s", this.memory[i]);
+            System.out.printf("\t%5s", format(getItem(i)));
 
             if ((i + 1) % 10 == 0 && i < this.size - 1) {
                 System.out.printf("\n%5d", i + 1);
@@ -0,0 +1,59 @@
+/**
+ * Storage of the memory words
+ *
+ * {@link SmpMemory} checks every address before it reaches the backend, so
+ * a backend only ever sees addresses from 0 to getSize() - 1. Plain reads
+ * and writes are opaque, the other operations are atomic and volatile, like
+ * the operations of an int[] through a VarHandle.
+ */
+public interface SmpMemoryBackend {
+    /**
+     * Get the number of words
+     *
+     * @return int
+     */
+    int getSize();
+
+    /**
+     * Read a word
+     *
+     * @param address A valid address
+     * @return word
+     */
+    int get(int address);
+
+    /**
+     * Write a word
+     *
+     * @param address A valid address
+     * @param word The word
+     */
+    void set(int address, int word);
+
+    /**
+     * Read a word, ordered with the atomic operations
+     *
+     * @param address A valid address
+     * @return word
+     */
+    int getVolatile(int address);
+
+    /**
+     * Atomically write the word if it still has the expected value
+     *
+     * @param address A valid address
+     * @param expected The expected value
+     * @param word The new value
+     * @return true if the word was written
+     */
+    boolean compareAndSet(int address, int expected, int word);
+
+    /**
+     * Atomically add to the word
+     *
+     * @param address A valid address
+     * @param delta The value to add
+     * @return previous word
+     */
+    int getAndAdd(int address, int delta);
+}
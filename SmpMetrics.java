@@ -0,0 +1,259 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide metrics of the compiler and the processors
+ *
+ * Every counter is a LongAdder, so concurrent processors update their own
+ * stripe instead of contending on a single word. Processors count opcodes
+ * locally and flush them here periodically, see {@link SmpProcessor}.
+ */
+public class SmpMetrics implements SmpMetricsMXBean {
+    // Object name of the registered MBean
+    public static final String OBJECT_NAME = "smp:type=Metrics";
+    // Number of latency buckets, bucket i counts latencies up to 2^i microseconds
+    private static final int BUCKETS = 24;
+    // Process-wide instance
+    private static final SmpMetrics INSTANCE = register(new SmpMetrics());
+
+    // Executed instructions
+    private final LongAdder instructions = new LongAdder();
+    // Executed instructions by opcode
+    private final LongAdder[] opcodes = new LongAdder[100];
+    // Successful compilations
+    private final LongAdder compiled = new LongAdder();
+    // Failed compilations
+    private final LongAdder failed = new LongAdder();
+    // Compile latency histogram
+    private final LongAdder[] latency = new LongAdder[BUCKETS + 1];
+    // Started runs
+    private final LongAdder runs = new LongAdder();
+    // Processors currently executing
+    private final LongAdder active = new LongAdder();
+    // Runs stopped by HALT
+    private final LongAdder halted = new LongAdder();
+    // Runs stopped by a fault
+    private final LongAdder faulted = new LongAdder();
+
+    /**
+     * Initialize the counters
+     */
+    private SmpMetrics() {
+        for (int i = 0; i < opcodes.length; i++) {
+            opcodes[i] = new LongAdder();
+        }
+
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Get the process-wide metrics
+     *
+     * @return SmpMetrics
+     */
+    public static SmpMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a compilation
+     *
+     * @param nanos Compile time in nanoseconds
+     * @param success Whether the program compiled
+     */
+    public void recordCompile(long nanos, boolean success) {
+        (success ? compiled : failed).increment();
+
+        // Find the power of two bucket of the latency in microseconds
+        long micros = Math.max(1, nanos / 1000);
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        latency[Math.min(bucket, BUCKETS)].increment();
+    }
+
+    /**
+     * Record the start of a run
+     *
+     * @param resumed Whether a run suspended for input is continued
+     */
+    public void recordStart(boolean resumed) {
+        if (!resumed) {
+            runs.increment();
+        }
+
+        active.increment();
+    }
+
+    /**
+     * Record the end of a run
+     *
+     * @param isHalted Whether the program halted
+     * @param isFaulted Whether the program faulted
+     */
+    public void recordStop(boolean isHalted, boolean isFaulted) {
+        active.decrement();
+
+        if (isHalted) {
+            halted.increment();
+        }
+
+        if (isFaulted) {
+            faulted.increment();
+        }
+    }
+
+    /**
+     * Add the locally counted opcodes of a processor and clear them
+     *
+     * @param counts Executed instructions by opcode
+     */
+    public void recordInstructions(long[] counts) {
+        long total = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                opcodes[i].add(counts[i]);
+                total += counts[i];
+                counts[i] = 0;
+            }
+        }
+
+        instructions.add(total);
+    }
+
+    @Override
+    public long getInstructionsRetired() {
+        return instructions.sum();
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+        for (int i = 0; i < opcodes.length; i++) {
+            long count = opcodes[i].sum();
+
+            if (count != 0) {
+                counts.put(getOpcodeName(i), count);
+            }
+        }
+
+        return counts;
+    }
+
+    @Override
+    public long getProgramsCompiled() {
+        return compiled.sum();
+    }
+
+    @Override
+    public long getCompileFailures() {
+        return failed.sum();
+    }
+
+    @Override
+    public Map<String, Long> getCompileLatencyHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.put("<=" + (1L << i) + "us", latency[i].sum());
+        }
+
+        histogram.put(">" + (1L << (BUCKETS - 1)) + "us", latency[BUCKETS].sum());
+        return histogram;
+    }
+
+    @Override
+    public long getProgramsRun() {
+        return runs.sum();
+    }
+
+    @Override
+    public long getActiveProcessors() {
+        return active.sum();
+    }
+
+    @Override
+    public long getProgramsHalted() {
+        return halted.sum();
+    }
+
+    @Override
+    public long getProgramsFaulted() {
+        return faulted.sum();
+    }
+
+    @Override
+    public void reset() {
+        instructions.reset();
+        compiled.reset();
+        failed.reset();
+        runs.reset();
+        halted.reset();
+        faulted.reset();
+
+        for (LongAdder counter : opcodes) {
+            counter.reset();
+        }
+
+        for (LongAdder counter : latency) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Get the instruction name of an opcode
+     *
+     * @param opcode The opcode
+     * @return name (e.g ADD), or the number if it's not an instruction
+     */
+    static String getOpcodeName(int opcode) {
+        switch (opcode) {
+            case 10: return "READ";
+            case 11: return "WRITE";
+            case 20: return "LOAD";
+            case 21: return "STORE";
+            case 22: return "LOADI";
+            case 23: return "STOREI";
+            case 24: return "INDEX";
+            case 25: return "LOADX";
+            case 26: return "STOREX";
+            case 30: return "ADD";
+            case 31: return "SUBTRACT";
+            case 32: return "MULTIPLY";
+            case 33: return "DIVIDE";
+            case 34: return "MODULO";
+            case 40: return "BRANCH";
+            case 41: return "BRANCHNEG";
+            case 42: return "BRANCHZERO";
+            case 43: return "HALT";
+            case 50: return "FETCHADD";
+            case 51: return "LOADLINK";
+            case 52: return "CAS";
+            case 53: return "FENCE";
+            case 54: return "SPAWN";
+            default: return String.format("%02d", opcode);
+        }
+    }
+
+    /**
+     * Register the metrics with the platform MBean server
+     *
+     * @param metrics The metrics
+     * @return the metrics, registered if the platform allows it
+     */
+    private static SmpMetrics register(SmpMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            // Keep counting even if it can't be published
+        }
+
+        return metrics;
+    }
+}
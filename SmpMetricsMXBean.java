@@ -0,0 +1,74 @@
+import java.util.Map;
+
+/**
+ * Live interpreter and compiler counters, registered as smp:type=Metrics
+ */
+public interface SmpMetricsMXBean {
+    /**
+     * Get the number of executed instructions of every processor
+     *
+     * @return long
+     */
+    long getInstructionsRetired();
+
+    /**
+     * Get the number of executed instructions by opcode name
+     *
+     * @return opcode name (e.g ADD) to count
+     */
+    Map<String, Long> getOpcodeCounts();
+
+    /**
+     * Get the number of successful compilations
+     *
+     * @return long
+     */
+    long getProgramsCompiled();
+
+    /**
+     * Get the number of compilations that failed with an error
+     *
+     * @return long
+     */
+    long getCompileFailures();
+
+    /**
+     * Get the compile latency histogram
+     *
+     * @return bucket upper bound (e.g <=1024us) to count
+     */
+    Map<String, Long> getCompileLatencyHistogram();
+
+    /**
+     * Get the number of started program runs
+     *
+     * @return long
+     */
+    long getProgramsRun();
+
+    /**
+     * Get the number of processors currently executing a program
+     *
+     * @return long
+     */
+    long getActiveProcessors();
+
+    /**
+     * Get the number of runs stopped by a HALT
+     *
+     * @return long
+     */
+    long getProgramsHalted();
+
+    /**
+     * Get the number of runs stopped by a run-time fault
+     *
+     * @return long
+     */
+    long getProgramsFaulted();
+
+    /**
+     * Reset every counter except the active processors
+     */
+    void reset();
+}
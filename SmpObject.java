@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relocatable object of a compiled module (.smo file)
+ *
+ * The words are laid out as if the module was loaded at address 0. An
+ * operand that refers to the module itself is moved by the address the
+ * module is linked at, an operand that refers to an imported symbol is
+ * set to the address of the symbol. Branch labels are named "@name" and
+ * variables "name".
+ *
+ * ------------ File format: -------------
+ * SMO 1 name          header with the module name
+ * EXPORT @sum 3       exported symbol and its address in the module
+ * IMPORT @done        imported symbol
+ * 2003 *              word relocated by the module address
+ * 4000 @done          word relocated to an imported symbol
+ * 4300                word kept as it is
+ * ------------------------------------
+ */
+public class SmpObject {
+    // Header of the file format
+    private static final String MAGIC = "SMO";
+    // Version of the file format
+    private static final int VERSION = 1;
+    // Object extension name
+    public static final String OBJECT_FILE_EXT = "smo";
+
+    // Name of the module, its source file
+    private final String name;
+    // Words of the module loaded at address 0
+    private final int[] words;
+    // Address of every exported symbol in the module
+    private final Map<String, Integer> exports;
+    // Imported symbols
+    private final List<String> imports;
+    // Words whose operand is patched when linked
+    private final List<SmpRelocation> relocations;
+
+    /**
+     * Initialize the object
+     *
+     * @param name Name of the module
+     * @param words Words of the module loaded at address 0
+     * @param exports Address of every exported symbol in the module
+     * @param imports Imported symbols
+     * @param relocations Words whose operand is patched when linked
+     */
+    public SmpObject(String name, int[] words, Map<String, Integer> exports, List<String> imports, List<SmpRelocation> relocations) {
+        this.name = name;
+        this.words = words.clone();
+        this.exports = exports;
+        this.imports = imports;
+        this.relocations = relocations;
+    }
+
+    /**
+     * Get the object file name of a source file (e.g lib.smp is lib.smo)
+     *
+     * @param source Source file name
+     * @return object file name
+     */
+    public static String getObjectFilename(String source) {
+        int index = source.lastIndexOf(".");
+        return (index > 0 ? source.substring(0, index) : source) + "." + OBJECT_FILE_EXT;
+    }
+
+    /**
+     * Read an object file
+     *
+     * @param file The file
+     * @return object
+     * @throws IOException If the file can't be read or is not an object file
+     */
+    public static SmpObject read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        String[] header = lines.isEmpty() ? new String[0] : lines.get(0).split(" ", 3);
+
+        // Check the header
+        if (header.length < 3 || !header[0].equals(MAGIC) || !header[1].equals(String.valueOf(VERSION))) {
+            throw new IOException("not a version " + VERSION + " object file " + file);
+        }
+
+        Map<String, Integer> exports = new LinkedHashMap<String, Integer>();
+        List<String> imports = new ArrayList<String>();
+        List<SmpRelocation> relocations = new ArrayList<SmpRelocation>();
+        List<Integer> words = new ArrayList<Integer>();
+
+        try {
+            for (String line : lines.subList(1, lines.size())) {
+                String[] tokens = line.trim().split(" ");
+
+                if (tokens[0].equals("EXPORT")) {
+                    exports.put(tokens[1], Integer.parseInt(tokens[2]));
+                } else if (tokens[0].equals("IMPORT")) {
+                    imports.add(tokens[1]);
+                } else if (!tokens[0].isEmpty()) {
+                    // Word with its relocation, if any
+                    if (tokens.length > 1) {
+                        relocations.add(new SmpRelocation(words.size(), tokens[1].equals("*") ? null : tokens[1]));
+                    }
+
+                    words.add(Integer.parseInt(tokens[0]));
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("invalid object file " + file + ": " + e.getMessage());
+        }
+
+        return new SmpObject(header[2], words.stream().mapToInt(Integer::intValue).toArray(), exports, imports, relocations);
+    }
+
+    /**
+     * Write the object file
+     *
+     * @param file The file
+     * @throws IOException If the file can't be written
+     */
+    public void write(Path file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        String[] symbols = new String[words.length];
+
+        lines.add(MAGIC + " " + VERSION + " " + name);
+
+        for (Map.Entry<String, Integer> export : exports.entrySet()) {
+            lines.add("EXPORT " + export.getKey() + " " + export.getValue());
+        }
+
+        for (String symbol : imports) {
+            lines.add("IMPORT " + symbol);
+        }
+
+        for (SmpRelocation relocation : relocations) {
+            symbols[relocation.index] = relocation.isLocal() ? "*" : relocation.symbol;
+        }
+
+        for (int i = 0; i < words.length; i++) {
+            lines.add(SmpMemory.format(words[i]) + (symbols[i] != null ? " " + symbols[i] : ""));
+        }
+
+        Files.write(file, lines);
+    }
+
+    /**
+     * Get the name of the module
+     *
+     * @return String
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the words of the module loaded at address 0
+     *
+     * @return int[]
+     */
+    public int[] getWords() {
+        return words.clone();
+    }
+
+    /**
+     * Get the address of every exported symbol in the module
+     *
+     * @return symbols in declaration order
+     */
+    public Map<String, Integer> getExports() {
+        return exports;
+    }
+
+    /**
+     * Get the imported symbols
+     *
+     * @return symbols in declaration order
+     */
+    public List<String> getImports() {
+        return imports;
+    }
+
+    /**
+     * Get the words whose operand is patched when linked
+     *
+     * @return relocations in word order
+     */
+    public List<SmpRelocation> getRelocations() {
+        return relocations;
+    }
+}
@@ -0,0 +1,322 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Partial evaluator of the compiled instructions
+ *
+ * Runs the instructions at compile time from the declared values of the
+ * variables, until the program halts or reaches an instruction whose
+ * result isn't known before it runs: a READ, a division by zero, an
+ * indexed or indirect access, or an atomic instruction. What the WRITEs on
+ * the way print is then known, so that part of the run is replaced with a
+ * WRITE of every printed value. If the program halted, that is the whole
+ * program. Otherwise the variables start with the values they had where
+ * the run stopped, the accumulator is loaded if the rest of the program
+ * reads it, and a BRANCH continues with the instruction the run stopped
+ * at. A run longer than the step limit (e.g an endless loop) is not
+ * replaced, and neither is a replacement that doesn't run fewer
+ * instructions or doesn't fit in the word budget.
+ */
+class SmpPartialEvaluator {
+    // Opcodes of the instructions the evaluator runs or emits
+    private static final int WRITE = 11;
+    private static final int LOAD = 20;
+    private static final int STORE = 21;
+    private static final int ADD = 30;
+    private static final int SUBTRACT = 31;
+    private static final int MULTIPLY = 32;
+    private static final int DIVIDE = 33;
+    private static final int MODULO = 34;
+    private static final int BRANCH = 40;
+    private static final int BRANCHNEG = 41;
+    private static final int BRANCHZERO = 42;
+
+    // Instructions whose labels point to instruction indexes
+    private final List<SmpInstruction> code;
+    // Constant of a value, added if the program has none
+    private final IntFunction<SmpVariable> constants;
+    // Largest number of instructions the run may take
+    private final long limit;
+    // Largest number of words of the program with the replacement
+    private final int budget;
+    // Values of the variables the run has read or written
+    private final Map<SmpVariable, Integer> memory = new HashMap<SmpVariable, Integer>();
+    // Values printed by the run
+    private final List<Integer> outputs = new ArrayList<Integer>();
+    // Accumulator of the run
+    private int accumulator = 0;
+    // Instructions run
+    private long steps = 0;
+
+    /**
+     * Initialize the evaluator
+     *
+     * @param code Instructions whose labels point to instruction indexes
+     * @param constants Constant of a value, added if the program has none
+     * @param limit Largest number of instructions of the run
+     * @param budget Largest number of words, code and data, of the program
+     */
+    public SmpPartialEvaluator(List<SmpInstruction> code, IntFunction<SmpVariable> constants, long limit, int budget) {
+        this.code = code;
+        this.constants = constants;
+        this.limit = limit;
+        this.budget = budget;
+    }
+
+    /**
+     * Run the part of the program that needs no input and replace it with its output
+     *
+     * @param values Initial values of the variables, set to the values where the run stopped
+     * @return false if the program is kept
+     */
+    public boolean specialize(Map<SmpVariable, String> values) {
+        int stop;
+
+        try {
+            stop = run();
+        } catch (NumberFormatException e) {
+            // A variable without a number value
+            return false;
+        }
+
+        if (stop < 0) {
+            return false;
+        }
+
+        boolean halted = code.get(stop).isHalt();
+        boolean load = !halted && accumulator != 0 && isAccumulatorRead(stop);
+        // Values the replacement writes or loads, every one a constant
+        Set<Integer> cells = new LinkedHashSet<Integer>(outputs);
+
+        if (load) {
+            cells.add(accumulator);
+        }
+
+        // The replacement must run fewer instructions, HALT or BRANCH included
+        int instructions = outputs.size() + (load ? 1 : 0) + 1;
+
+        if (instructions >= steps + (halted ? 1 : 0)) {
+            return false;
+        }
+
+        // Words of the program before and, at most, after the replacement
+        int before = code.size() + getVariableCount();
+        int after = halted ? instructions + cells.size() : instructions + before + cells.size();
+
+        if (after > budget && after > before) {
+            return false;
+        }
+
+        // WRITE every output value
+        List<SmpInstruction> replacement = new ArrayList<SmpInstruction>();
+
+        for (int value : outputs) {
+            replacement.add(new SmpInstruction(WRITE, constants.apply(value), null));
+        }
+
+        if (halted) {
+            replacement.add(code.get(stop));
+            code.clear();
+            code.addAll(replacement);
+            return true;
+        }
+
+        // Restore the accumulator and continue where the run stopped
+        SmpLabel resume = new SmpLabel("resume");
+        Set<SmpLabel> labels = new HashSet<SmpLabel>();
+
+        for (SmpInstruction instruction : code) {
+            if (instruction.label != null && instruction.label.index >= 0) {
+                labels.add(instruction.label);
+            }
+        }
+
+        if (load) {
+            replacement.add(new SmpInstruction(LOAD, constants.apply(accumulator), null));
+        }
+
+        resume.index = stop;
+        labels.add(resume);
+        replacement.add(new SmpInstruction(BRANCH, null, resume));
+
+        for (SmpLabel label : labels) {
+            label.index += replacement.size();
+        }
+
+        code.addAll(0, replacement);
+
+        // The variables start with the values they had where the run stopped
+        for (Map.Entry<SmpVariable, Integer> cell : memory.entrySet()) {
+            if (cell.getValue() != Integer.parseInt(cell.getKey().value)) {
+                values.put(cell.getKey(), String.valueOf(cell.getValue()));
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Run the instructions until the program halts or needs a value that isn't known
+     *
+     * @return index of the HALT or of the instruction the run stopped at, -1 if it took too long
+     */
+    private int run() {
+        int pc = 0;
+
+        while (pc >= 0 && pc < code.size()) {
+            SmpInstruction instruction = code.get(pc);
+            int next = pc + 1;
+
+            // Stop at the HALT, or if the run takes too long or prints more than fits in memory
+            if (instruction.isHalt()) {
+                return pc;
+            }
+
+            if (steps >= limit || outputs.size() > budget) {
+                return -1;
+            }
+
+            switch (instruction.opcode) {
+                case WRITE:
+                    outputs.add(get(instruction.variable));
+                    break;
+
+                case LOAD:
+                    accumulator = get(instruction.variable);
+                    break;
+
+                case STORE:
+                    memory.put(instruction.variable, accumulator);
+                    break;
+
+                case ADD:
+                    accumulator += get(instruction.variable);
+                    break;
+
+                case SUBTRACT:
+                    accumulator -= get(instruction.variable);
+                    break;
+
+                case MULTIPLY:
+                    accumulator *= get(instruction.variable);
+                    break;
+
+                case DIVIDE:
+                case MODULO:
+                    // The division by zero faults when the program runs
+                    if (get(instruction.variable) == 0) {
+                        return pc;
+                    }
+
+                    accumulator = instruction.opcode == DIVIDE ? accumulator / get(instruction.variable)
+                            : accumulator % get(instruction.variable);
+                    break;
+
+                case BRANCH:
+                    next = instruction.label.index;
+                    break;
+
+                case BRANCHNEG:
+                    next = accumulator < 0 ? instruction.label.index : next;
+                    break;
+
+                case BRANCHZERO:
+                    next = accumulator == 0 ? instruction.label.index : next;
+                    break;
+
+                // READ, an indexed or indirect access, or an instruction of the cores
+                default:
+                    return pc;
+            }
+
+            pc = next;
+            steps++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the value of a variable during the run
+     *
+     * @param v The variable
+     * @return value
+     * @throws NumberFormatException If the variable has no number value
+     */
+    private int get(SmpVariable v) {
+        Integer value = memory.get(v);
+
+        if (value == null) {
+            value = Integer.parseInt(v.value);
+            memory.put(v, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Check if an instruction reachable from the start reads the accumulator before it's loaded
+     *
+     * @param start Index of the first instruction
+     * @return boolean
+     */
+    private boolean isAccumulatorRead(int start) {
+        Set<Integer> visited = new HashSet<Integer>();
+        Deque<Integer> pending = new ArrayDeque<Integer>();
+        pending.push(start);
+
+        while (!pending.isEmpty()) {
+            int i = pending.pop();
+
+            if (i < 0 || i >= code.size() || !visited.add(i)) {
+                continue;
+            }
+
+            SmpInstruction instruction = code.get(i);
+
+            if (instruction.readsAccumulator()) {
+                return true;
+            }
+
+            if (instruction.loadsAccumulator() || instruction.isHalt()) {
+                continue;
+            }
+
+            if (instruction.label != null) {
+                pending.push(instruction.label.index);
+            }
+
+            if (!instruction.isUnconditional()) {
+                pending.push(i + 1);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the number of data cells of the variables the instructions use
+     *
+     * @return int
+     */
+    private int getVariableCount() {
+        Set<SmpVariable> used = new HashSet<SmpVariable>();
+        int cells = 0;
+
+        for (SmpInstruction instruction : code) {
+            if (instruction.variable != null && used.add(instruction.variable)) {
+                cells += instruction.variable.getSize();
+            }
+        }
+
+        return cells;
+    }
+}
@@ -1,4 +1,8 @@
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 
 /**
  * Simpletron processor
@@ -11,15 +15,51 @@ public class SmpProcessor {
     // Program counter
     private int pc;
     // Instruction register
-    private String ir;
+    private int ir;
     // The memory
     private SmpMemory memory;
     // Operation code
-    private String opcode;
+    private int opcode;
     // Operand
     private int operand;
     // Accumulator
-    private String accumulator;
+    private int accumulator;
+    // Index register, added to the operand of LOADX and STOREX
+    private int index = 0;
+    // Flag if the program has been halted
+    private boolean halted = false;
+    // Run-time fault that stopped the program, null if none
+    private String fault = null;
+    // Flag if the memory and processor status are dumped on every instruction
+    private boolean trace = true;
+    // Input for the READ instruction
+    private BufferedReader input = null;
+    // Output for the WRITE instruction
+    private PrintStream output = System.out;
+    // Number of executed instructions
+    private long cycles = 0;
+    // Maximum number of instructions to execute, 0 for no limit
+    private long cycleLimit = 0;
+    // Executed instructions by opcode since the last flush to the metrics
+    private final long[] opcodeCounts = new long[100];
+    // Number of instructions between two flushes to the metrics
+    private static final int FLUSH_INTERVAL = 1 << 16;
+    // Value read by the last LOADLINK, expected by CAS
+    private int expected = 0;
+    // Address of the first instruction
+    private int entry = 0;
+    // Multi-core machine of the processor, null until the first SPAWN
+    private SmpMachine machine = null;
+    // Core number in the machine
+    private int core = 0;
+    // Input channel of the READ instruction, null to read the input reader
+    private SmpChannel channel = null;
+    // Flag if a READ without input suspends the run instead of waiting
+    private boolean suspendable = false;
+    // Flag if the run is suspended at a READ without input
+    private boolean waiting = false;
+    // Execution profile of the run, null to not record one
+    private SmpProfile profile = null;
 
     /**
      * Initialize memory with the default size
@@ -28,24 +68,264 @@ public class SmpProcessor {
         this.memory = new SmpMemory();
     }
 
+    /**
+     * Initialize memory with the default size and load the program
+     * 
+     * @param program The program image
+     */
+    public SmpProcessor(SmpProgram program) {
+        // Share the program's pages until they are written
+        this.memory = new SmpMemory(program.getSegment());
+
+        // Record the load
+        SmpEvents.ProgramLoaded event = new SmpEvents.ProgramLoaded();
+
+        if (event.shouldCommit()) {
+            event.words = program.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Initialize memory with a backend, keeping the words it already has
+     * 
+     * @param backend The backend (e.g a mapped file of an earlier run)
+     */
+    public SmpProcessor(SmpMemoryBackend backend) {
+        this.memory = new SmpMemory(backend);
+    }
+
+    /**
+     * Initialize memory with a backend and load the program
+     * 
+     * @param program The program image
+     * @param backend The backend
+     * @throws IllegalArgumentException If the program doesn't fit in memory
+     */
+    public SmpProcessor(SmpProgram program, SmpMemoryBackend backend) {
+        this(backend);
+        load(program);
+    }
+
+    /**
+     * Initialize a spawned core sharing the memory of the machine
+     * 
+     * @param machine The machine
+     * @param core Core number
+     * @param entry Address of the first instruction
+     * @param parent The spawning core, whose settings, accumulator and index register are copied
+     */
+    SmpProcessor(SmpMachine machine, int core, int entry, SmpProcessor parent) {
+        // Share the standard input instead of buffering it twice
+        if (parent.input == null) {
+            parent.input = new BufferedReader(new InputStreamReader(System.in));
+        }
+
+        this.memory = machine.getMemory();
+        this.machine = machine;
+        this.core = core;
+        this.entry = entry;
+        this.accumulator = parent.accumulator;
+        this.index = parent.index;
+        this.trace = parent.trace;
+        this.input = parent.input;
+        this.channel = parent.channel;
+        this.output = parent.output;
+        this.cycleLimit = parent.cycleLimit;
+    }
+
+    /**
+     * Load the program image into memory starting at address 0
+     * 
+     * @param program The program image
+     * @throws IllegalArgumentException If the program doesn't fit in memory
+     */
+    public void load(SmpProgram program) {
+        // Check if the program fits
+        if (program.size() > this.memory.getSize()) {
+            throw new IllegalArgumentException("program doesn't fit in memory (" + program.size() + " words)");
+        }
+
+        // Store every word
+        for (int i = 0; i < program.size(); i++) {
+            this.memory.setItem(program.getWord(i), i);
+        }
+
+        // Record the load
+        SmpEvents.ProgramLoaded event = new SmpEvents.ProgramLoaded();
+
+        if (event.shouldCommit()) {
+            event.words = program.size();
+            event.commit();
+        }
+    }
+
     /**
      * Store the data with the specified address to the memory
      * 
      * @param data    The data to store
      * @param address The address to store
      */
-    public void store(String data, int address) {
+    public void store(int data, int address) {
         // Store the data to the memory
         this.memory.setItem(data, address);
     }
 
+    /**
+     * Set whether the memory and processor status are dumped on every instruction
+     * 
+     * @param trace true to dump on every instruction
+     */
+    public void setTrace(boolean trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Set the input of the READ instruction
+     * 
+     * @param input The input, one value per line
+     */
+    public void setInput(BufferedReader input) {
+        this.input = input;
+    }
+
+    /**
+     * Set the input channel of the READ instruction
+     * 
+     * @param channel The channel, null to read the input reader again
+     */
+    public void setChannel(SmpChannel channel) {
+        setChannel(channel, false);
+    }
+
+    /**
+     * Set the input channel of the READ instruction
+     * 
+     * @param channel The channel
+     * @param suspendable true to suspend the run at a READ without input, see {@link #resume()}
+     */
+    void setChannel(SmpChannel channel, boolean suspendable) {
+        this.channel = channel;
+        this.suspendable = suspendable;
+    }
+
+    /**
+     * Check if the run is suspended at a READ without input
+     * 
+     * @return boolean
+     */
+    public boolean isWaiting() {
+        return this.waiting;
+    }
+
+    /**
+     * Set the output of the WRITE instruction
+     * 
+     * @param output The output
+     */
+    public void setOutput(PrintStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Set the maximum number of instructions execute() may run
+     * 
+     * @param cycleLimit The limit, 0 for no limit
+     */
+    public void setCycleLimit(long cycleLimit) {
+        this.cycleLimit = cycleLimit;
+    }
+
+    /**
+     * Record the executed instructions and taken branches of the run into a
+     * profile, the instructions of spawned cores are not recorded
+     * 
+     * @param profile The profile of the loaded program, null to not record one
+     */
+    public void setProfile(SmpProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Get the profile the run is recorded into
+     * 
+     * @return profile, or null if none
+     */
+    public SmpProfile getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * Get the number of executed instructions
+     * 
+     * @return long
+     */
+    public long getCycles() {
+        return this.cycles;
+    }
+
+    /**
+     * Get the multi-core machine
+     * 
+     * @return machine, or null if the program never spawned a core
+     */
+    public SmpMachine getMachine() {
+        return this.machine;
+    }
+
+    /**
+     * Get the core number in the machine
+     * 
+     * @return int, 0 for the processor that started the program
+     */
+    public int getCoreNumber() {
+        return this.core;
+    }
+
+    /**
+     * Get the memory
+     * 
+     * @return SmpMemory
+     */
+    public SmpMemory getMemory() {
+        return this.memory;
+    }
+
+    /**
+     * Get the accumulator
+     * 
+     * @return int
+     */
+    public int getAccumulator() {
+        return this.accumulator;
+    }
+
+    /**
+     * Check if the program has been halted
+     * 
+     * @return boolean
+     */
+    public boolean isHalted() {
+        return this.halted;
+    }
+
+    /**
+     * Get the run-time fault that stopped the program
+     * 
+     * @return fault message, or null if the program didn't fault
+     */
+    public String getFault() {
+        return this.fault;
+    }
+
     /**
      * Dump the processor status
      */
     public void dump() {
         System.out.println("\nProgram counter       :  " + this.pc);
-        System.out.println("Instruction Register  :  " + this.ir);
+        System.out.println("Instruction Register  :  " + SmpMemory.format(this.ir));
         System.out.println("Accumulator           :  " + this.accumulator);
+        System.out.println("Index Register        :  " + this.index);
         System.out.println("Opcode                :  " + this.opcode);
         System.out.println("Operand               :  " + this.operand);
     }
@@ -54,16 +334,102 @@ public class SmpProcessor {
      * Execute the program with start address
      */
     public void execute() {
-        // For each instruction
-        for (pc = 0; pc < this.memory.getSize() - 1; pc++) {
-            // Dump the memory
-            this.memory.dump();
-            // Fetch the instruction
-            fetch(pc);
-            // Dump the processor status
-            dump();
-            // Decode the instruction
-            decode();
+        pc = entry;
+        run(false);
+    }
+
+    /**
+     * Continue a run suspended at a READ without input, starting with that READ
+     */
+    public void resume() {
+        run(true);
+    }
+
+    /**
+     * Execute instructions from the program counter until the program stops or waits for input
+     * 
+     * @param resumed Whether a suspended run is continued
+     */
+    private void run(boolean resumed) {
+        // Start the execution event
+        SmpEvents.Execution event = new SmpEvents.Execution();
+        event.begin();
+        long start = cycles;
+        SmpMetrics metrics = SmpMetrics.get();
+        metrics.recordStart(resumed);
+        int pending = 0;
+        waiting = false;
+
+        try {
+            // For each instruction
+            for (; !halted && fault == null && pc < this.memory.getSize() - 1; pc++, cycles++) {
+                // Stop if the cycle limit is reached
+                if (cycleLimit > 0 && cycles >= cycleLimit) {
+                    break;
+                }
+
+                // Dump the memory
+                if (trace) {
+                    this.memory.dump();
+                }
+                // Fetch the instruction
+                fetch(pc);
+                // Dump the processor status
+                if (trace) {
+                    dump();
+                }
+                // Address of the instruction, a taken branch moves the program counter
+                int address = pc;
+                // Decode the instruction
+                decode();
+
+                // Suspend at the READ, it is executed again on resume
+                if (waiting) {
+                    break;
+                }
+
+                // Record the instruction into the profile
+                if (profile != null) {
+                    profile.record(address, pc != address);
+                }
+
+                // Count the opcode locally, words that aren't instructions count as 00
+                opcodeCounts[opcode >= 0 && opcode < opcodeCounts.length ? opcode : 0]++;
+
+                // Publish the counts now and then so long runs show up live
+                if (++pending == FLUSH_INTERVAL) {
+                    metrics.recordInstructions(opcodeCounts);
+                    pending = 0;
+
+                    // Stop if another core faulted
+                    if (machine != null && machine.isStopped()) {
+                        break;
+                    }
+                }
+            }
+
+            // Wait for the spawned cores and report their fault
+            if (machine != null && core == 0 && !waiting) {
+                machine.join();
+
+                if (fault == null) {
+                    fault = machine.getFault();
+                }
+            }
+        } finally {
+            // Publish the remaining counts and how the program stopped
+            metrics.recordInstructions(opcodeCounts);
+            metrics.recordStop(halted, fault != null);
+        }
+
+        // Record how the program stopped
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.instructions = cycles - start;
+            event.halted = halted;
+            event.fault = fault;
+            event.commit();
         }
     }
 
@@ -72,7 +438,7 @@ public class SmpProcessor {
      */
     public void step() {
         // For each instruction
-        for (pc = 0; pc < this.memory.getSize() - 1; pc++) {
+        for (pc = entry; !halted && fault == null && pc < this.memory.getSize() - 1; pc++) {
             // Dump the memory
             this.memory.dump();
             // Fetch the instruction
@@ -84,7 +450,7 @@ public class SmpProcessor {
 
             // Wait for user input
             System.out.print("\n\nPress enter key to continue...");
-            new Scanner(System.in).nextLine();
+            readLine();
         }
     }
 
@@ -98,10 +464,8 @@ public class SmpProcessor {
         this.ir = this.memory.getItem(address);
 
         // Set opcode and operand on set instruction register
-        if (this.ir != null && this.ir.length() == 4) {
-            this.opcode = this.ir.substring(0, 2);
-            this.operand = Integer.parseInt(this.ir.substring(2, 4));
-        }
+        this.opcode = this.ir / 100;
+        this.operand = this.ir % 100;
     }
 
     /**
@@ -109,55 +473,188 @@ public class SmpProcessor {
      */
     public void decode() {
         String data = "";
-        int result = 0;
-
-        // If no opcode
-        if (opcode == null) {
-            // Don't proceed to decoding
-            return;
-        }
+        int divisor = 0;
+        int address = 0;
 
         // Check the opcode
         switch (opcode) {
             // READ
-            case "10":
-                // Get user input
-                System.out.print("Enter value: ");
-                data = new Scanner(System.in).nextLine();
-                // Store the data to the memory
-                this.memory.setItem(data, this.operand);
+            case 10:
+                // Get user input until it is a valid word
+                while (true) {
+                    if (trace) {
+                        System.out.print("Enter value: ");
+                    }
+
+                    // Record the time spent waiting for the input
+                    SmpEvents.InputWait wait = new SmpEvents.InputWait();
+                    wait.begin();
+                    data = readLine();
+                    wait.end();
+
+                    if (wait.shouldCommit()) {
+                        wait.address = this.operand;
+                        wait.commit();
+                    }
+
+                    // Suspend if the input may still come
+                    if (data == null && suspendable && !channel.isDrained()) {
+                        this.waiting = true;
+                        break;
+                    }
+
+                    // Halt if there is no more input
+                    if (data == null) {
+                        this.halted = true;
+                        break;
+                    }
+
+                    try {
+                        // Store the data to the memory
+                        this.memory.setItem(Integer.parseInt(data.trim()), this.operand);
+                        break;
+                    } catch (NumberFormatException e) {
+                        this.output.println("Invalid value '" + data + "'.");
+                    }
+                }
+
                 break;
 
             // WRITE
-            case "11":
+            case 11:
                 // Print the data from the memory
-                System.out.printf("\nData from Memory Address (%d) : %s\n\n", this.operand, this.memory.getItem(this.operand));
+                if (trace) {
+                    this.output.printf("\nData from Memory Address (%d) : %d\n\n", this.operand, this.memory.getItem(this.operand));
+                } else {
+                    this.output.println(this.memory.getItem(this.operand));
+                }
+
                 break;
 
             // LOAD
-            case "20":
+            case 20:
                 // Load the data from the memory to the accumulator
                 this.accumulator = this.memory.getItem(this.operand);
                 break;
 
             // STORE
-            case "21":
+            case 21:
                 // Store the data from the accumulator to the memory
                 this.memory.setItem(this.accumulator, this.operand);
                 break;
 
+            // LOADI
+            case 22:
+                // Get the address stored at the operand
+                address = this.memory.getItem(this.operand);
+
+                // Check if the address is outside the memory
+                if (!this.memory.isAddressValid(address)) {
+                    fault("indirect address " + address + " out of range");
+                    break;
+                }
+
+                // Load the data at that address to the accumulator
+                this.accumulator = this.memory.getItem(address);
+                break;
+
+            // STOREI
+            case 23:
+                // Get the address stored at the operand
+                address = this.memory.getItem(this.operand);
+
+                // Check if the address is outside the memory
+                if (!this.memory.isAddressValid(address)) {
+                    fault("indirect address " + address + " out of range");
+                    break;
+                }
+
+                // Store the data from the accumulator at that address
+                this.memory.setItem(this.accumulator, address);
+                break;
+
+            // INDEX
+            case 24:
+                // Load the data from the memory to the index register
+                this.index = this.memory.getItem(this.operand);
+                break;
+
+            // LOADX
+            case 25:
+                // Add the index register to the operand
+                address = this.operand + this.index;
+
+                // Check if the address is outside the memory
+                if (!this.memory.isAddressValid(address)) {
+                    fault("indexed address " + address + " out of range");
+                    break;
+                }
+
+                // Load the data at that address to the accumulator
+                this.accumulator = this.memory.getItem(address);
+                break;
+
+            // STOREX
+            case 26:
+                // Add the index register to the operand
+                address = this.operand + this.index;
+
+                // Check if the address is outside the memory
+                if (!this.memory.isAddressValid(address)) {
+                    fault("indexed address " + address + " out of range");
+                    break;
+                }
+
+                // Store the data from the accumulator at that address
+                this.memory.setItem(this.accumulator, address);
+                break;
+
             // ADD
-            case "30":
+            case 30:
                 // Add the data from the memory to the accumulator
-                result = Integer.parseInt(this.accumulator) + Integer.parseInt(this.memory.getItem(this.operand));
-                this.accumulator = String.valueOf(result);
+                this.accumulator += this.memory.getItem(this.operand);
                 break;
 
             // SUBTRACT
-            case "31":
+            case 31:
                 // Subtract the data from the memory to the accumulator
-                result = Integer.parseInt(this.accumulator) - Integer.parseInt(this.memory.getItem(this.operand));
-                this.accumulator = String.valueOf(result);
+                this.accumulator -= this.memory.getItem(this.operand);
+                break;
+
+            // MULTIPLY
+            case 32:
+                // Multiply the accumulator by the data from the memory
+                this.accumulator *= this.memory.getItem(this.operand);
+                break;
+
+            // DIVIDE
+            case 33:
+                // Get the divisor
+                divisor = this.memory.getItem(this.operand);
+
+                // Check if dividing by zero
+                if (divisor == 0) {
+                    fault("division by zero");
+                    break;
+                }
+
+                // Divide the accumulator by the data from the memory
+                this.accumulator /= divisor;
+                break;
+
+            // MODULO
+            case 34:
+                // Get the divisor
+                divisor = this.memory.getItem(this.operand);
+
+                // Check if dividing by zero
+                if (divisor == 0) {
+                    fault("division by zero");
+                    break;
+                }
+
+                // Get the remainder of the accumulator divided by the data from the memory
+                this.accumulator %= divisor;
                 break;
 
             /**
@@ -176,15 +673,15 @@ public class SmpProcessor {
              */
 
             // BRANCH
-            case "40":
+            case 40:
                 // Set the program counter to the operand
                 this.pc = this.operand - 1;
                 break;
 
             // BRANCHNEG
-            case "41":
+            case 41:
                 // Check if the accumulator is negative
-                if (Integer.parseInt(this.accumulator) < 0) {
+                if (this.accumulator < 0) {
                     // Set the program counter to the operand
                     this.pc = this.operand - 1;
                 }
@@ -192,9 +689,9 @@ public class SmpProcessor {
                 break;
 
             // BRANCHZERO
-            case "42":
+            case 42:
                 // Check if the accumulator is zero
-                if (Integer.parseInt(this.accumulator) == 0) {
+                if (this.accumulator == 0) {
                     // Set the program counter to the operand
                     this.pc = this.operand - 1;
                 }
@@ -202,10 +699,92 @@ public class SmpProcessor {
                 break;
 
             // HALT
-            case "43":
-                System.out.println("\nProgram terminated.");
-                System.exit(0);
+            case 43:
+                if (trace) {
+                    System.out.println("\nProgram terminated.");
+                }
+                this.halted = true;
+                break;
+
+            // FETCHADD
+            case 50:
+                // Atomically add the accumulator to the memory and load the previous value
+                this.accumulator = this.memory.getAndAdd(this.operand, this.accumulator);
+                break;
+
+            // LOADLINK
+            case 51:
+                // Load the data from the memory and expect it in the next CAS
+                this.accumulator = this.memory.getItemVolatile(this.operand);
+                this.expected = this.accumulator;
                 break;
+
+            // CAS
+            case 52:
+                // Store the accumulator if the memory still has the linked value, 1 if stored, 0 if not
+                this.accumulator = this.memory.compareAndSet(this.operand, this.expected, this.accumulator) ? 1 : 0;
+                break;
+
+            // FENCE
+            case 53:
+                // Order the memory accesses of this core
+                SmpMemory.fence();
+                break;
+
+            // SPAWN
+            case 54:
+                // Become core 0 of a machine on the first spawn
+                if (this.machine == null) {
+                    this.machine = new SmpMachine(this);
+                }
+
+                // Start a core at the operand with a copy of the accumulator
+                if (!this.machine.spawn(this, this.operand)) {
+                    fault("can't spawn more than " + SmpMachine.MAX_CORES + " cores");
+                }
+
+                break;
+        }
+    }
+
+    /**
+     * Stop the program with a run-time fault
+     * 
+     * @param message The message
+     */
+    private void fault(String message) {
+        this.fault = message + " at address " + this.pc;
+
+        // Stop the other cores
+        if (this.machine != null) {
+            this.machine.fault(this.core, this.fault);
+        }
+
+        if (trace) {
+            System.out.println("\nProgram faulted: " + this.fault + ".");
+        }
+    }
+
+    /**
+     * Read a line from the input
+     * 
+     * @return line, or null at the end of the input
+     */
+    private String readLine() {
+        // Read the channel if there is one
+        if (this.channel != null) {
+            return this.suspendable ? this.channel.poll() : this.channel.take();
+        }
+
+        // Open the standard input on first use
+        if (this.input == null) {
+            this.input = new BufferedReader(new InputStreamReader(System.in));
+        }
+
+        try {
+            return this.input.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 }
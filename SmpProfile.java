@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Execution profile of a program image: how often every instruction ran
+ * and how often every branch was taken
+ *
+ * A processor records the profile of its run with
+ * {@link SmpProcessor#setProfile(SmpProfile)}, and the compiler lays out the
+ * basic blocks of the same program with {@link SmpCompiler#setProfile(SmpProfile)}
+ * so the likely successor of every block falls through. The words of the
+ * image are kept, so a profile of another program is not used.
+ *
+ * ------------ File format: -------------
+ * SMPROF 1            header
+ * 0 2007 1 0          address, word, executions and taken branches
+ * ------------------------------------
+ */
+public class SmpProfile {
+    // Header of the file format
+    private static final String MAGIC = "SMPROF";
+    // Version of the file format
+    private static final int VERSION = 1;
+    // Profile extension name
+    public static final String PROFILE_FILE_EXT = "prof";
+
+    // Words of the profiled program image
+    private final int[] words;
+    // Executions of every instruction
+    private final long[] counts;
+    // Taken branches of every instruction
+    private final long[] taken;
+
+    /**
+     * Initialize an empty profile of a program image
+     *
+     * @param program The program image
+     */
+    public SmpProfile(SmpProgram program) {
+        this(program.getWords(), new long[program.size()], new long[program.size()]);
+    }
+
+    /**
+     * Initialize a profile
+     *
+     * @param words Words of the program image
+     * @param counts Executions of every instruction
+     * @param taken Taken branches of every instruction
+     */
+    private SmpProfile(int[] words, long[] counts, long[] taken) {
+        this.words = words;
+        this.counts = counts;
+        this.taken = taken;
+    }
+
+    /**
+     * Get the profile file name of a program (e.g prog.sml is prog.prof)
+     *
+     * @param program Source or program file name
+     * @return profile file name
+     */
+    public static String getProfileFilename(String program) {
+        int index = program.lastIndexOf(".");
+        return (index > 0 ? program.substring(0, index) : program) + "." + PROFILE_FILE_EXT;
+    }
+
+    /**
+     * Read a profile file
+     *
+     * @param file The file
+     * @return profile
+     * @throws IOException If the file can't be read or is not a profile
+     */
+    public static SmpProfile read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+
+        // Check the header
+        if (lines.isEmpty() || !lines.get(0).trim().equals(MAGIC + " " + VERSION)) {
+            throw new IOException("not a version " + VERSION + " profile " + file);
+        }
+
+        int size = lines.size() - 1;
+        int[] words = new int[size];
+        long[] counts = new long[size];
+        long[] taken = new long[size];
+
+        try {
+            for (int i = 0; i < size; i++) {
+                String[] tokens = lines.get(i + 1).trim().split(" ");
+
+                if (Integer.parseInt(tokens[0]) != i) {
+                    throw new IOException("address " + tokens[0] + " out of order in profile " + file);
+                }
+
+                words[i] = Integer.parseInt(tokens[1]);
+                counts[i] = Long.parseLong(tokens[2]);
+                taken[i] = Long.parseLong(tokens[3]);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("invalid profile " + file + ": " + e.getMessage());
+        }
+
+        return new SmpProfile(words, counts, taken);
+    }
+
+    /**
+     * Write the profile file
+     *
+     * @param file The file
+     * @throws IOException If the file can't be written
+     */
+    public void write(Path file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+
+        lines.add(MAGIC + " " + VERSION);
+
+        for (int i = 0; i < words.length; i++) {
+            lines.add(i + " " + words[i] + " " + counts[i] + " " + taken[i]);
+        }
+
+        Files.write(file, lines);
+    }
+
+    /**
+     * Record an executed instruction of the image, other addresses are ignored
+     *
+     * @param address Address of the instruction
+     * @param branched Whether the instruction moved the program counter
+     */
+    void record(int address, boolean branched) {
+        if (address < counts.length) {
+            counts[address]++;
+
+            if (branched) {
+                taken[address]++;
+            }
+        }
+    }
+
+    /**
+     * Get the number of words of the profiled image
+     *
+     * @return int
+     */
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Get a word of the profiled image
+     *
+     * @param address The address
+     * @return word
+     */
+    public int getWord(int address) {
+        return words[address];
+    }
+
+    /**
+     * Get the number of executions of an instruction
+     *
+     * @param address Address of the instruction
+     * @return long
+     */
+    public long getCount(int address) {
+        return counts[address];
+    }
+
+    /**
+     * Get the number of times a branch was taken
+     *
+     * @param address Address of the branch
+     * @return long
+     */
+    public long getTaken(int address) {
+        return taken[address];
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled low-level simpletron program image
+ */
+public class SmpProgram {
+    // Memory words of the program starting at address 0
+    private final int[] words;
+    // Pages shared by every processor running the program, created on first use
+    private volatile SmpSegment segment = null;
+
+    /**
+     * Initialize the program with the memory words
+     *
+     * @param words Memory words starting at address 0
+     */
+    public SmpProgram(int[] words) {
+        this.words = words.clone();
+    }
+
+    /**
+     * Parse the lines of a low-level simpletron program (e.g. the lines of a .sml file)
+     *
+     * @param lines Program lines, blank lines are skipped
+     * @return program
+     * @throws NumberFormatException If a line is not a valid word
+     */
+    public static SmpProgram parse(List<String> lines) {
+        List<Integer> words = new ArrayList<Integer>();
+
+        // For each line
+        for (String line : lines) {
+            // Get the word
+            String data = line.trim();
+
+            // Skip empty lines
+            if (data.length() > 0) {
+                words.add(Integer.parseInt(data));
+            }
+        }
+
+        // Copy to the image
+        int[] image = new int[words.size()];
+
+        for (int i = 0; i < image.length; i++) {
+            image[i] = words.get(i);
+        }
+
+        return new SmpProgram(image);
+    }
+
+    /**
+     * Get the number of words
+     *
+     * @return int
+     */
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Get the word at the specified address
+     *
+     * @param address The address
+     * @return int
+     */
+    public int getWord(int address) {
+        return words[address];
+    }
+
+    /**
+     * Get the read-only pages of the default memory with the program loaded
+     *
+     * @return segment
+     * @throws IllegalArgumentException If the program doesn't fit in memory
+     */
+    SmpSegment getSegment() {
+        // Racing threads may both create it, either one is kept
+        if (segment == null) {
+            segment = SmpHeapBackend.createSegment(this, SmpMemory.DEFAULT_SIZE);
+        }
+
+        return segment;
+    }
+
+    /**
+     * Get a copy of the memory words
+     *
+     * @return int[]
+     */
+    public int[] getWords() {
+        return words.clone();
+    }
+}
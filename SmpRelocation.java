@@ -0,0 +1,17 @@
+/**
+ * A word of a module whose operand is patched when the module is linked
+ */
+class SmpRelocation {
+    public int index;
+    public String symbol;
+
+    public SmpRelocation(int index, String symbol) {
+        this.index = index;
+        this.symbol = symbol;
+    }
+
+    // Operand is an address of the module itself, moved with the module
+    public boolean isLocal() {
+        return symbol == null;
+    }
+}
@@ -0,0 +1,473 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Table of the cheapest replacement of short straight-line instruction
+ * sequences, generated by {@link SmpSuperoptimizer}
+ *
+ * A pattern names its variables a, b and c in the order they first appear,
+ * and #0 and #1 are the constants 0 and 1. A replacement does what its
+ * pattern does to the accumulator and to the variables in fewer
+ * instructions, and faults (division by zero) exactly when its pattern does.
+ * The compiler applies the table packaged next to its classes, see
+ * {@link SmpCompiler#setRewriteTable(SmpRewriteTable)}.
+ *
+ * ------------ File format: -------------
+ * SMOPT 1                        header
+ * STORE a; LOAD a = STORE a      pattern = replacement
+ * ADD #0 =                       an empty replacement removes the pattern
+ * ------------------------------------
+ */
+public class SmpRewriteTable {
+    // Header of the file format
+    private static final String MAGIC = "SMOPT";
+    // Version of the file format
+    private static final int VERSION = 1;
+    // Name of the table packaged with the compiler
+    public static final String DEFAULT_TABLE = "rewrites.tbl";
+    // Instructions a pattern is made of, in opcode order
+    static final String[] MNEMONICS = { "LOAD", "STORE", "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "MODULO" };
+    static final int[] OPCODES = { 20, 21, 30, 31, 32, 33, 34 };
+    // Variables of a pattern, in the order they first appear
+    static final String[] VARIABLES = { "a", "b", "c" };
+    // Constants of a pattern
+    static final int[] CONSTANTS = { 0, 1 };
+    // Table packaged with the compiler, null if it's missing
+    private static final SmpRewriteTable DEFAULT = readDefault();
+
+    // Replacement of every pattern
+    private final Map<String, String> rewrites = new LinkedHashMap<String, String>();
+    // Instructions of the longest pattern
+    private int maxLength = 0;
+
+    /**
+     * Get the table packaged with the compiler
+     *
+     * @return table, or null if it's missing
+     */
+    public static SmpRewriteTable getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Read the table packaged with the compiler
+     *
+     * @return table, or null if it's missing or invalid
+     */
+    private static SmpRewriteTable readDefault() {
+        try (InputStream input = SmpRewriteTable.class.getResourceAsStream("/" + DEFAULT_TABLE)) {
+            return input == null ? null : read(new InputStreamReader(input), DEFAULT_TABLE);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read a table file
+     *
+     * @param file The file
+     * @return table
+     * @throws IOException If the file can't be read or is not a table
+     */
+    public static SmpRewriteTable read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            return read(reader, file.toString());
+        }
+    }
+
+    /**
+     * Read a table
+     *
+     * @param reader Text of the table
+     * @param name Name of the table used in error messages
+     * @return table
+     * @throws IOException If the text can't be read or is not a table
+     */
+    private static SmpRewriteTable read(Reader reader, String name) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        SmpRewriteTable table = new SmpRewriteTable();
+        String line = lines.readLine();
+
+        // Check the header
+        if (line == null || !line.trim().equals(MAGIC + " " + VERSION)) {
+            throw new IOException("not a version " + VERSION + " rewrite table " + name);
+        }
+
+        while ((line = lines.readLine()) != null) {
+            int equals = line.indexOf('=');
+
+            if (line.isBlank()) {
+                continue;
+            }
+
+            if (equals < 0) {
+                throw new IOException("invalid rewrite '" + line + "' in " + name);
+            }
+
+            String pattern = line.substring(0, equals).trim();
+            String replacement = line.substring(equals + 1).trim();
+
+            if (!isValid(pattern, replacement)) {
+                throw new IOException("invalid rewrite '" + line + "' in " + name);
+            }
+
+            table.put(pattern, replacement);
+        }
+
+        return table;
+    }
+
+    /**
+     * Write the table file
+     *
+     * @param file The file
+     * @throws IOException If the file can't be written
+     */
+    public void write(Path file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+
+        lines.add(MAGIC + " " + VERSION);
+
+        for (Map.Entry<String, String> rewrite : rewrites.entrySet()) {
+            lines.add((rewrite.getKey() + " = " + rewrite.getValue()).trim());
+        }
+
+        Files.write(file, lines);
+    }
+
+    /**
+     * Add the replacement of a pattern
+     *
+     * @param pattern The pattern (e.g STORE a; LOAD a)
+     * @param replacement The replacement, empty to remove the pattern
+     */
+    public void put(String pattern, String replacement) {
+        rewrites.put(pattern, replacement);
+        maxLength = Math.max(maxLength, pattern.split(";").length);
+    }
+
+    /**
+     * Get the replacement of a pattern
+     *
+     * @param pattern The pattern
+     * @return replacement, or null if the pattern is already the cheapest
+     */
+    public String get(String pattern) {
+        return rewrites.get(pattern);
+    }
+
+    /**
+     * Get the number of rewrites
+     *
+     * @return int
+     */
+    public int size() {
+        return rewrites.size();
+    }
+
+    /**
+     * Replace the sequences of the instructions that have a cheaper
+     * replacement, until none is left. A sequence never spans a label
+     * target, so only its first instruction can be branched to, and a
+     * constant #0 or #1 is only matched if nothing writes it.
+     *
+     * @param code Instructions whose labels point to instruction indexes
+     * @param constants Constant of a value, added if the program has none
+     * @return number of instructions removed
+     */
+    int apply(List<SmpInstruction> code, IntFunction<SmpVariable> constants) {
+        // Labels of the instructions and the instructions they point to
+        Set<SmpLabel> labels = new HashSet<SmpLabel>();
+        boolean[] target = new boolean[code.size() + 1];
+        // Variables written by the program and constants it uses
+        Set<SmpVariable> written = new HashSet<SmpVariable>();
+        Set<String> used = new HashSet<String>();
+
+        for (SmpInstruction instruction : code) {
+            if (instruction.label != null) {
+                labels.add(instruction.label);
+            }
+
+            if (instruction.variable != null && isWrite(instruction.opcode)) {
+                written.add(instruction.variable);
+            }
+
+            if (instruction.variable != null && instruction.variable.name.startsWith("#")) {
+                used.add(instruction.variable.name);
+            }
+        }
+
+        for (SmpLabel label : labels) {
+            if (label.index >= 0 && label.index <= code.size()) {
+                target[label.index] = true;
+            }
+        }
+
+        // Rewritten instructions, a rewrite replaces the last ones
+        List<SmpInstruction> rewritten = new ArrayList<SmpInstruction>();
+        boolean[] rewrittenTarget = new boolean[code.size() + 1];
+        // New index of every old index
+        int[] index = new int[code.size() + 1];
+        // Instructions to add next, the replacements go first
+        Deque<SmpInstruction> pending = new ArrayDeque<SmpInstruction>();
+
+        for (int i = 0; i <= code.size(); i++) {
+            index[i] = rewritten.size();
+            rewrittenTarget[rewritten.size()] |= target[i];
+
+            if (i == code.size()) {
+                break;
+            }
+
+            pending.push(code.get(i));
+
+            while (!pending.isEmpty()) {
+                rewritten.add(pending.pop());
+
+                // Replace the longest sequence at the end that has a replacement
+                for (int length = Math.min(maxLength, rewritten.size()); length >= 1; length--) {
+                    int start = rewritten.size() - length;
+                    List<SmpInstruction> replacement = hasTarget(rewrittenTarget, start + 1, rewritten.size()) ? null
+                            : rewrite(rewritten.subList(start, rewritten.size()), written, used, constants);
+
+                    if (replacement != null) {
+                        rewritten.subList(start, rewritten.size()).clear();
+
+                        for (int r = replacement.size() - 1; r >= 0; r--) {
+                            pending.push(replacement.get(r));
+                        }
+
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Move every label to the new index of its instruction
+        for (SmpLabel label : labels) {
+            if (label.index >= 0 && label.index <= code.size()) {
+                label.index = index[label.index];
+            }
+        }
+
+        int removed = code.size() - rewritten.size();
+        code.clear();
+        code.addAll(rewritten);
+        return removed;
+    }
+
+    /**
+     * Get the cheaper replacement of a sequence
+     *
+     * @param sequence The sequence
+     * @param written Variables written by the program
+     * @param used Constants used by the program, the constants of the replacement are added
+     * @param constants Constant of a value
+     * @return replacement, or null if the sequence has none
+     */
+    private List<SmpInstruction> rewrite(List<SmpInstruction> sequence, Set<SmpVariable> written, Set<String> used,
+            IntFunction<SmpVariable> constants) {
+        // Variables of the pattern in the order they first appear
+        Map<SmpVariable, String> names = new IdentityHashMap<SmpVariable, String>();
+        Map<String, SmpVariable> variables = new LinkedHashMap<String, SmpVariable>();
+        StringBuilder pattern = new StringBuilder();
+
+        for (SmpInstruction instruction : sequence) {
+            String mnemonic = getMnemonic(instruction.opcode);
+            SmpVariable variable = instruction.variable;
+
+            // Only the straight-line instructions on the variables of this program
+            if (mnemonic == null || variable == null || variable.imported) {
+                return null;
+            }
+
+            String name = names.get(variable);
+
+            if (name == null && isConstant(variable.name) && !written.contains(variable)) {
+                name = variable.name;
+            } else if (name == null && variables.size() < VARIABLES.length) {
+                name = VARIABLES[variables.size()];
+                variables.put(name, variable);
+            } else if (name == null) {
+                return null;
+            }
+
+            names.put(variable, name);
+            pattern.append(pattern.length() > 0 ? "; " : "").append(mnemonic).append(' ').append(name);
+        }
+
+        String text = rewrites.get(pattern.toString());
+
+        if (text == null) {
+            return null;
+        }
+
+        // Build the replacement, a constant the program doesn't use yet is a new word
+        List<SmpInstruction> replacement = new ArrayList<SmpInstruction>();
+        Set<String> added = new HashSet<String>();
+
+        for (String token : text.isEmpty() ? new String[0] : text.split(";")) {
+            String[] parts = token.trim().split(" ");
+            String name = parts[1];
+            SmpVariable variable = variables.get(name);
+
+            if (variable == null && isConstant(name)) {
+                variable = constants.apply(Integer.parseInt(name.substring(1)));
+
+                if (!used.contains(name)) {
+                    added.add(name);
+                }
+            }
+
+            replacement.add(new SmpInstruction(getOpcode(parts[0]), variable, null));
+        }
+
+        // The program must get shorter and must not grow
+        if (replacement.size() >= sequence.size() || added.size() > sequence.size() - replacement.size()) {
+            return null;
+        }
+
+        used.addAll(added);
+        return replacement;
+    }
+
+    /**
+     * Check if a rewrite only has pattern instructions and the replacement
+     * only has the variables of the pattern
+     *
+     * @param pattern The pattern
+     * @param replacement The replacement
+     * @return boolean
+     */
+    private static boolean isValid(String pattern, String replacement) {
+        Set<String> names = new HashSet<String>();
+
+        for (String token : pattern.split(";")) {
+            String[] parts = token.trim().split(" ");
+
+            if (parts.length != 2 || !isMnemonic(parts[0])) {
+                return false;
+            }
+
+            names.add(parts[1]);
+        }
+
+        for (String token : replacement.isEmpty() ? new String[0] : replacement.split(";")) {
+            String[] parts = token.trim().split(" ");
+
+            if (parts.length != 2 || !isMnemonic(parts[0]) || !names.contains(parts[1]) && !isConstant(parts[1])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if an instruction in the range is a label target
+     *
+     * @param target Flag of every label target
+     * @param from First index
+     * @param to Index after the last
+     * @return boolean
+     */
+    private static boolean hasTarget(boolean[] target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (target[i]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the name is a constant of a pattern (#0 or #1)
+     *
+     * @param name The name
+     * @return boolean
+     */
+    static boolean isConstant(String name) {
+        for (int value : CONSTANTS) {
+            if (name.equals("#" + value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the opcode writes its operand (READ, STORE, FETCHADD or CAS)
+     *
+     * @param opcode The opcode
+     * @return boolean
+     */
+    private static boolean isWrite(int opcode) {
+        return opcode == 10 || opcode == 21 || opcode == 50 || opcode == 52;
+    }
+
+    /**
+     * Get the mnemonic of a pattern instruction
+     *
+     * @param opcode The opcode
+     * @return mnemonic, or null if patterns don't have the opcode
+     */
+    static String getMnemonic(int opcode) {
+        for (int i = 0; i < OPCODES.length; i++) {
+            if (OPCODES[i] == opcode) {
+                return MNEMONICS[i];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Check if the mnemonic is a pattern instruction
+     *
+     * @param mnemonic The mnemonic
+     * @return boolean
+     */
+    private static boolean isMnemonic(String mnemonic) {
+        for (String known : MNEMONICS) {
+            if (known.equals(mnemonic)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the opcode of a pattern instruction
+     *
+     * @param mnemonic The mnemonic
+     * @return opcode
+     * @throws IllegalArgumentException If patterns don't have the mnemonic
+     */
+    static int getOpcode(String mnemonic) {
+        for (int i = 0; i < MNEMONICS.length; i++) {
+            if (MNEMONICS[i].equals(mnemonic)) {
+                return OPCODES[i];
+            }
+        }
+
+        throw new IllegalArgumentException("unknown instruction " + mnemonic);
+    }
+}
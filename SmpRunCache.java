@@ -0,0 +1,229 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoized program runs
+ *
+ * A single-core run is fully determined by the program image, the READ
+ * input lines and the cycle limit, so the result of a run is kept under a
+ * SHA-256 hash of the three and the next run with the same key skips
+ * execute(). The least recently used results are evicted once the cache
+ * is full. Runs that spawn cores are never cached, since the cores may
+ * interleave differently every time.
+ */
+public class SmpRunCache {
+    // Default number of cached results
+    public static final int DEFAULT_CAPACITY = 1024;
+    // Longest output that is cached, in characters
+    private static final int MAX_OUTPUT = 1 << 16;
+    // Cache shared by every run of the JVM
+    private static final SmpRunCache SHARED = new SmpRunCache(DEFAULT_CAPACITY);
+
+    // Results by key, least recently used first
+    private final LinkedHashMap<String, SmpRunResult> results;
+    // Number of runs answered from the cache
+    private final LongAdder hits = new LongAdder();
+    // Number of runs executed
+    private final LongAdder misses = new LongAdder();
+    // Number of results removed to make room
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Initialize an empty cache
+     *
+     * @param capacity Maximum number of results
+     */
+    public SmpRunCache(int capacity) {
+        this.results = new LinkedHashMap<String, SmpRunResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SmpRunResult> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the cache shared by every run of the JVM
+     *
+     * @return SmpRunCache
+     */
+    public static SmpRunCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Run the program quietly, or return the result of an identical earlier run
+     *
+     * @param program Program image
+     * @param input Input lines of the READ instruction
+     * @param cycleLimit Maximum number of instructions, 0 for no limit
+     * @return result, shared with the other hits of the same key
+     */
+    public SmpRunResult run(SmpProgram program, List<String> input, long cycleLimit) {
+        String key = getKey(program, input, cycleLimit);
+        SmpRunResult result;
+
+        synchronized (results) {
+            result = results.get(key);
+        }
+
+        if (result != null) {
+            hits.increment();
+            return result;
+        }
+
+        misses.increment();
+
+        // Run it and keep the result if the run is repeatable
+        SmpProcessor processor = new SmpProcessor(program);
+        result = execute(processor, input, cycleLimit);
+
+        if (processor.getMachine() == null && result.output.length() <= MAX_OUTPUT) {
+            synchronized (results) {
+                results.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Run the program quietly without the cache
+     *
+     * @param program Program image
+     * @param input Input lines of the READ instruction
+     * @param cycleLimit Maximum number of instructions, 0 for no limit
+     * @return result
+     */
+    public static SmpRunResult execute(SmpProgram program, List<String> input, long cycleLimit) {
+        return execute(new SmpProcessor(program), input, cycleLimit);
+    }
+
+    /**
+     * Get the number of runs answered from the cache
+     *
+     * @return long
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of runs executed
+     *
+     * @return long
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of results removed to make room
+     *
+     * @return long
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the number of cached results
+     *
+     * @return int
+     */
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /**
+     * Remove every cached result
+     */
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+    }
+
+    /**
+     * Run a loaded processor quietly and capture its output and final state
+     *
+     * @param processor The processor
+     * @param input Input lines of the READ instruction
+     * @param cycleLimit Maximum number of instructions, 0 for no limit
+     * @return result
+     */
+    private static SmpRunResult execute(SmpProcessor processor, List<String> input, long cycleLimit) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        processor.setTrace(false);
+        processor.setCycleLimit(cycleLimit);
+        processor.setInput(new BufferedReader(new StringReader(String.join("\n", input))));
+        processor.setOutput(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+        processor.execute();
+
+        // Copy the final memory
+        SmpMemory memory = processor.getMemory();
+        int[] words = new int[memory.getSize()];
+
+        for (int i = 0; i < words.length; i++) {
+            words[i] = memory.getItem(i);
+        }
+
+        return new SmpRunResult(buffer.toString(StandardCharsets.UTF_8), words, processor.getAccumulator(), processor.isHalted(), processor.getFault(), processor.getCycles());
+    }
+
+    /**
+     * Hash the program image, the input lines and the cycle limit
+     *
+     * @param program Program image
+     * @param input Input lines
+     * @param cycleLimit Maximum number of instructions
+     * @return hex SHA-256 digest
+     */
+    private static String getKey(SmpProgram program, List<String> input, long cycleLimit) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // Sizes are hashed too, so the image and the input can't run into each other
+        ByteBuffer words = ByteBuffer.allocate(16 + program.size() * 4);
+        words.putLong(cycleLimit).putInt(program.size());
+
+        for (int i = 0; i < program.size(); i++) {
+            words.putInt(program.getWord(i));
+        }
+
+        words.putInt(input.size());
+        digest.update(words.array());
+
+        for (String line : input) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Output and final state of a quiet program run, shared by every cache hit
+ * of the run so it can't be changed
+ */
+class SmpRunResult {
+    public final String output;
+    private final int[] memory;
+    public final int accumulator;
+    public final boolean halted;
+    public final String fault;
+    public final long cycles;
+
+    public SmpRunResult(String output, int[] memory, int accumulator, boolean halted, String fault, long cycles) {
+        this.output = output;
+        this.memory = memory.clone();
+        this.accumulator = accumulator;
+        this.halted = halted;
+        this.fault = fault;
+        this.cycles = cycles;
+    }
+
+    // Copy of the final memory words
+    public int[] getMemory() {
+        return memory.clone();
+    }
+}
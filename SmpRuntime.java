@@ -0,0 +1,173 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Run-time support of the classes written by {@link SmpClassWriter}
+ *
+ * READ, WRITE, DIVIDE and MODULO behave like they do on the processor with
+ * tracing off: invalid input is read again, the end of the input halts the
+ * program and dividing by zero stops it with a fault.
+ */
+public class SmpRuntime {
+    // Input of the READ instruction
+    private static BufferedReader input = null;
+    // Output of the WRITE instruction
+    private static PrintStream output = System.out;
+
+    /**
+     * Thrown by READ at the end of the input to halt the program
+     */
+    static class Halt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Halt() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Thrown by an instruction that stops the program with a run-time fault
+     */
+    static class Fault extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Fault(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private SmpRuntime() {
+    }
+
+    /**
+     * Set the input of the READ instruction
+     *
+     * @param reader The input, one value per line
+     */
+    public static void setInput(BufferedReader reader) {
+        input = reader;
+    }
+
+    /**
+     * Set the output of the WRITE instruction
+     *
+     * @param stream The output
+     */
+    public static void setOutput(PrintStream stream) {
+        output = stream;
+    }
+
+    /**
+     * Run a compiled program, the entry point of its main method
+     *
+     * @param program The compiled program
+     */
+    public static void start(Runnable program) {
+        try {
+            program.run();
+        } catch (Halt e) {
+            // The input ended
+        } catch (Fault e) {
+            output.flush();
+            SmpCompiler.printError(e.getMessage());
+            System.exit(1);
+        }
+
+        output.flush();
+    }
+
+    /**
+     * Run a compiled program without exiting on a fault
+     *
+     * @param program The compiled program
+     * @return fault message, or null if the program didn't fault
+     */
+    public static String run(Runnable program) {
+        try {
+            program.run();
+        } catch (Halt e) {
+            // The input ended
+        } catch (Fault e) {
+            return e.getMessage();
+        }
+
+        return null;
+    }
+
+    /**
+     * READ a word, reading again until the line is a valid word
+     *
+     * @return the word
+     */
+    public static int read() {
+        // Open the standard input on first use
+        if (input == null) {
+            input = new BufferedReader(new InputStreamReader(System.in));
+        }
+
+        while (true) {
+            String data;
+
+            try {
+                data = input.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            // Halt if there is no more input
+            if (data == null) {
+                throw new Halt();
+            }
+
+            try {
+                return Integer.parseInt(data.trim());
+            } catch (NumberFormatException e) {
+                output.println("Invalid value '" + data + "'.");
+            }
+        }
+    }
+
+    /**
+     * WRITE a word
+     *
+     * @param word The word
+     */
+    public static void write(int word) {
+        output.println(word);
+    }
+
+    /**
+     * DIVIDE the accumulator
+     *
+     * @param accumulator The accumulator
+     * @param divisor The divisor
+     * @param address Address of the instruction
+     * @return quotient
+     */
+    public static int divide(int accumulator, int divisor, int address) {
+        if (divisor == 0) {
+            throw new Fault("division by zero at address " + address);
+        }
+
+        return accumulator / divisor;
+    }
+
+    /**
+     * MODULO the accumulator
+     *
+     * @param accumulator The accumulator
+     * @param divisor The divisor
+     * @param address Address of the instruction
+     * @return remainder
+     */
+    public static int modulo(int accumulator, int divisor, int address) {
+        if (divisor == 0) {
+            throw new Fault("division by zero at address " + address);
+        }
+
+        return accumulator % divisor;
+    }
+}
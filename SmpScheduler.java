@@ -0,0 +1,124 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs many input-driven processors on a few carrier threads
+ *
+ * A processor whose READ finds no line on its channel gives its carrier
+ * thread back and is parked on the channel. It is resumed at the same READ
+ * when a line arrives, so thousands of processors waiting for input hold
+ * no thread at all. The instructions executed are the same as with a
+ * blocking READ.
+ */
+public class SmpScheduler implements AutoCloseable {
+    // Carrier threads
+    private final ExecutorService carriers;
+    // Processors parked on their channel
+    private final LongAdder waiting = new LongAdder();
+
+    /**
+     * Initialize the scheduler with a carrier per available processor
+     */
+    public SmpScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initialize the scheduler
+     *
+     * @param threads Number of carrier threads
+     */
+    public SmpScheduler(int threads) {
+        AtomicInteger count = new AtomicInteger();
+
+        this.carriers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "smp-carrier-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run a processor until it stops
+     *
+     * @param processor The processor, with the program loaded
+     * @param channel Input of the processor's READ instructions
+     * @return completed with the processor when it halts, faults or runs out of instructions
+     */
+    public CompletableFuture<SmpProcessor> submit(SmpProcessor processor, SmpChannel channel) {
+        CompletableFuture<SmpProcessor> done = new CompletableFuture<SmpProcessor>();
+        processor.setChannel(channel, true);
+
+        schedule(processor, channel, done, false);
+        return done;
+    }
+
+    /**
+     * Get the number of processors waiting for input
+     *
+     * @return long
+     */
+    public long getWaiting() {
+        return waiting.sum();
+    }
+
+    /**
+     * Stop the carrier threads, parked processors are never resumed
+     */
+    @Override
+    public void close() {
+        carriers.shutdownNow();
+    }
+
+    /**
+     * Run a processor on the next free carrier thread
+     *
+     * @param processor The processor
+     * @param channel Its input
+     * @param done Completed when it stops
+     * @param resumed Whether the processor was parked
+     */
+    private void schedule(SmpProcessor processor, SmpChannel channel, CompletableFuture<SmpProcessor> done, boolean resumed) {
+        try {
+            carriers.execute(() -> run(processor, channel, done, resumed));
+        } catch (RejectedExecutionException e) {
+            // The scheduler was closed
+            done.cancel(false);
+        }
+    }
+
+    /**
+     * Run a processor until it stops or waits for input
+     *
+     * @param processor The processor
+     * @param channel Its input
+     * @param done Completed when it stops
+     * @param resumed Whether the processor was parked
+     */
+    private void run(SmpProcessor processor, SmpChannel channel, CompletableFuture<SmpProcessor> done, boolean resumed) {
+        try {
+            if (resumed) {
+                waiting.decrement();
+                processor.resume();
+            } else {
+                processor.execute();
+            }
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+            return;
+        }
+
+        // Park until there is input
+        if (processor.isWaiting()) {
+            waiting.increment();
+            channel.park(() -> schedule(processor, channel, done, true));
+            return;
+        }
+
+        done.complete(processor);
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Read-only pages of a program image, shared by the memories of every
+ * instance of the program
+ */
+class SmpSegment {
+    public final int size;
+    public final int[][] pages;
+
+    public SmpSegment(int size, int[][] pages) {
+        this.size = size;
+        this.pages = pages;
+    }
+}
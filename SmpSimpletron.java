@@ -1,5 +1,8 @@
-import java.util.Scanner;
+import java.util.List;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * Simpletron processor
@@ -11,6 +14,8 @@ import java.io.File;
 public class SmpSimpletron {
     // The processor
     private SmpProcessor processor;
+    // The program image
+    private SmpProgram program;
     // Input extension name
     private final String INPUT_FILE_EXT = "sml";
 
@@ -32,30 +37,35 @@ public class SmpSimpletron {
         }
 
         // Read file
-        Scanner sc = new Scanner(file);
-        // Initialize the processor
-        this.processor = new SmpProcessor();
-
-        // Instruction counter
-        int i = 0;
-
-        // For each instruction in the file
-        while (sc.hasNextLine()) {
-            // Get the instruction
-            String data = sc.nextLine().trim();
-
-            // Store the instruction to the memory
-            // if the length is greater than 0
-            if (data.length() > 0) {
-                // Store the instruction to the processor
-                this.processor.store(data, i++);
-            }
+        List<String> lines = Files.readAllLines(file.toPath());
+        // Program image
+        SmpProgram program = null;
+
+        try {
+            // Parse the instructions
+            program = SmpProgram.parse(lines);
+        } catch (NumberFormatException e) {
+            error("invalid instruction in " + filename + " (" + e.getMessage() + ")");
         }
 
+        // Initialize the processor with the program
+        this.program = program;
+        this.processor = new SmpProcessor(program);
+        // Dump the processor
+        this.processor.dump();
+    }
+
+    /**
+     * Initialize the simpletron with a compiled program image
+     *
+     * @param program The program image
+     */
+    public SmpSimpletron(SmpProgram program) {
+        // Initialize the processor with the program
+        this.program = program;
+        this.processor = new SmpProcessor(program);
         // Dump the processor
         this.processor.dump();
-        // Close scanner
-        sc.close();
     }
 
     /**
@@ -63,6 +73,23 @@ public class SmpSimpletron {
      */
     public void execute() {
         this.processor.execute();
+        checkFault();
+    }
+
+    /**
+     * Execute the program and write its execution profile
+     * 
+     * @param filename Profile file name
+     * @throws IOException If the profile can't be written
+     */
+    public void profile(String filename) throws IOException {
+        SmpProfile profile = new SmpProfile(this.program);
+
+        this.processor.setProfile(profile);
+        this.processor.execute();
+        profile.write(Paths.get(filename));
+        System.out.println("Profile written to " + filename);
+        checkFault();
     }
 
     /**
@@ -70,6 +97,16 @@ public class SmpSimpletron {
      */
     public void step() {
         this.processor.step();
+        checkFault();
+    }
+
+    /**
+     * Show the run-time fault of the program, if any, and exit
+     */
+    private void checkFault() {
+        if (this.processor.getFault() != null) {
+            error(this.processor.getFault());
+        }
     }
 
     /**
@@ -114,6 +151,13 @@ public class SmpSimpletron {
             // Intantiate the simpletron interpreter
             // which is assuming a low-level simpletron instructions
             SmpSimpletron simpletron = new SmpSimpletron(args[0]);
+
+            // Write the execution profile if "--profile" is after the input filename
+            if (args.length > 1 && args[1].equals("--profile")) {
+                simpletron.profile(args.length > 2 ? args[2] : SmpProfile.getProfileFilename(args[0]));
+                return;
+            }
+
             simpletron.execute();
             return;
         }
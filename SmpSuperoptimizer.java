@@ -0,0 +1,494 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Offline superoptimizer of the straight-line instruction sequences
+ *
+ * Enumerates every sequence of LOAD, STORE and arithmetic instructions on
+ * the variables a, b and c and the constants 0 and 1 up to a length, and
+ * looks for the shortest sequence that is equivalent to it. Two sequences
+ * are equivalent if they leave the same accumulator and variables, or both
+ * fault, when they are run by a {@link SmpProcessor} from the same
+ * accumulator and variables. The sequences are grouped by their results on
+ * a few probes, and a candidate of the same group is only taken if it gives
+ * the same results on every combination of -2 to 2 and on random and
+ * extreme values. A sequence that contains a shorter sequence with a
+ * replacement is left to that replacement, so the table only has the
+ * sequences that can't be improved piece by piece.
+ *
+ * READ and WRITE are seen by the user and the branches end a basic block,
+ * so neither is part of a sequence.
+ *
+ * Usage: java SmpSuperoptimizer [--length n] [-o rewrites.tbl]
+ */
+public class SmpSuperoptimizer {
+    // Number of probes the sequences are grouped by
+    private static final int PROBES = 16;
+    // Number of random tests of a candidate, after the combinations of -2 to 2
+    private static final int RANDOM_TESTS = 256;
+    // Values a random test picks more often than the others
+    private static final int[] EXTREMES = { 0, 1, -1, 2, -2, Integer.MAX_VALUE, Integer.MIN_VALUE, 9999, -9999 };
+
+    // Instructions of the longest sequence
+    private int maxLength = 4;
+    // Instructions a sequence is made of, opcode * 100 + operand (a, b, c, then the constants)
+    private final int[] instructions;
+    // Accumulator and variables of the probes and of the tests
+    private final List<int[]> probes = new ArrayList<int[]>();
+    private final List<int[]> tests = new ArrayList<int[]>();
+    // Number of processor runs
+    private long runs = 0;
+
+    /**
+     * Initialize the superoptimizer
+     */
+    public SmpSuperoptimizer() {
+        List<Integer> list = new ArrayList<Integer>();
+        int operands = SmpRewriteTable.VARIABLES.length + SmpRewriteTable.CONSTANTS.length;
+
+        // Every opcode on every operand, except the STORE to a constant
+        for (int opcode : SmpRewriteTable.OPCODES) {
+            for (int operand = 0; operand < operands; operand++) {
+                if (opcode != 21 || operand < SmpRewriteTable.VARIABLES.length) {
+                    list.add(opcode * 100 + operand);
+                }
+            }
+        }
+
+        instructions = list.stream().mapToInt(Integer::intValue).toArray();
+
+        // Every combination of -2 to 2 of the accumulator and the variables
+        int cells = 1 + SmpRewriteTable.VARIABLES.length;
+
+        for (int n = 0; n < (int) Math.pow(5, cells); n++) {
+            int[] state = new int[cells];
+
+            for (int c = 0, rest = n; c < cells; c++, rest /= 5) {
+                state[c] = rest % 5 - 2;
+            }
+
+            tests.add(state);
+        }
+
+        // Random values with the extremes, the probes are drawn the same way
+        Random random = new Random(47);
+
+        for (int n = 0; n < RANDOM_TESTS + PROBES; n++) {
+            int[] state = new int[cells];
+
+            for (int c = 0; c < cells; c++) {
+                switch (random.nextInt(3)) {
+                    case 0: state[c] = EXTREMES[random.nextInt(EXTREMES.length)]; break;
+                    case 1: state[c] = random.nextInt(201) - 100; break;
+                    default: state[c] = random.nextInt();
+                }
+            }
+
+            (n < PROBES ? probes : tests).add(state);
+        }
+    }
+
+    /**
+     * Set the number of instructions of the longest sequence
+     *
+     * @param length instructions, 4 by default
+     */
+    public void setMaxLength(int length) {
+        this.maxLength = length;
+    }
+
+    /**
+     * Get the number of processor runs of the last generation
+     *
+     * @return long
+     */
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * Find the cheapest replacement of every sequence up to the longest
+     *
+     * @return table of the sequences that have a cheaper replacement
+     */
+    public SmpRewriteTable generate() {
+        SmpRewriteTable table = new SmpRewriteTable();
+        // Candidates by their results on the probes, shortest first
+        Map<String, List<int[]>> candidates = new HashMap<String, List<int[]>>();
+
+        runs = 0;
+
+        for (int length = 0; length <= maxLength; length++) {
+            // Sequences of this length are candidates of the longer ones
+            Map<String, List<int[]>> found = new HashMap<String, List<int[]>>();
+            boolean candidate = length < maxLength;
+
+            for (int[] sequence : enumerate(length)) {
+                // Only the canonical sequences get a replacement, a sequence contained in a pattern is already the cheapest
+                boolean rewritable = isCanonical(sequence) && !hasRewrittenPart(table, sequence);
+
+                if (!rewritable && !candidate) {
+                    continue;
+                }
+
+                String key = getProbeKey(sequence);
+
+                if (rewritable) {
+                    int[] replacement = findReplacement(candidates.get(key), sequence);
+
+                    if (replacement != null) {
+                        table.put(toString(sequence), toString(replacement));
+                    }
+                }
+
+                if (candidate) {
+                    found.computeIfAbsent(key, k -> new ArrayList<int[]>()).add(sequence);
+                }
+            }
+
+            for (Map.Entry<String, List<int[]>> group : found.entrySet()) {
+                candidates.computeIfAbsent(group.getKey(), k -> new ArrayList<int[]>()).addAll(group.getValue());
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Get every sequence of a length, one at a time
+     *
+     * @param length The length
+     * @return sequences
+     */
+    private Iterable<int[]> enumerate(int length) {
+        return () -> new Iterator<int[]>() {
+            // Index of every instruction of the next sequence, null after the last one
+            private int[] digits = new int[length];
+
+            @Override
+            public boolean hasNext() {
+                return digits != null;
+            }
+
+            @Override
+            public int[] next() {
+                int[] sequence = new int[length];
+
+                for (int i = 0; i < length; i++) {
+                    sequence[i] = instructions[digits[i]];
+                }
+
+                // Next combination
+                int i = length - 1;
+
+                while (i >= 0 && ++digits[i] == instructions.length) {
+                    digits[i--] = 0;
+                }
+
+                if (i < 0) {
+                    digits = null;
+                }
+
+                return sequence;
+            }
+        };
+    }
+
+    /**
+     * Find the shortest candidate that is equivalent to the sequence
+     *
+     * @param candidates Candidates with the same results on the probes, shortest first
+     * @param sequence The sequence
+     * @return replacement, or null if there is no shorter one
+     */
+    private int[] findReplacement(List<int[]> candidates, int[] sequence) {
+        if (candidates == null) {
+            return null;
+        }
+
+        int[] best = null;
+
+        for (int[] candidate : candidates) {
+            // Only the variables of the sequence, and the fewest constants it doesn't have
+            if (best != null && candidate.length > best.length || !hasVariablesOf(sequence, candidate)) {
+                continue;
+            }
+
+            if (best != null && getNewConstants(sequence, candidate) >= getNewConstants(sequence, best)) {
+                continue;
+            }
+
+            if (isEquivalent(sequence, candidate)) {
+                best = candidate;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Check if two sequences give the same results on every test
+     *
+     * @param sequence The sequence
+     * @param candidate The candidate
+     * @return boolean
+     */
+    private boolean isEquivalent(int[] sequence, int[] candidate) {
+        for (int[] state : tests) {
+            if (!Arrays.equals(run(sequence, state), run(candidate, state))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the results of a sequence on the probes
+     *
+     * @param sequence The sequence
+     * @return key of the results
+     */
+    private String getProbeKey(int[] sequence) {
+        StringBuilder key = new StringBuilder();
+
+        for (int[] state : probes) {
+            key.append(Arrays.toString(run(sequence, state)));
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Run a sequence on a processor
+     *
+     * @param sequence The sequence
+     * @param state Accumulator and variables before the sequence
+     * @return 1 and nothing else if it faulted, otherwise 0, the accumulator and the variables
+     */
+    private int[] run(int[] sequence, int[] state) {
+        // LOAD of the accumulator, the sequence and HALT, then the accumulator, the variables and the constants
+        int base = sequence.length + 2;
+        int[] words = new int[base + state.length + SmpRewriteTable.CONSTANTS.length];
+
+        words[0] = 2000 + base;
+
+        for (int i = 0; i < sequence.length; i++) {
+            words[i + 1] = sequence[i] / 100 * 100 + base + 1 + sequence[i] % 100;
+        }
+
+        words[sequence.length + 1] = 4300;
+        System.arraycopy(state, 0, words, base, state.length);
+
+        for (int i = 0; i < SmpRewriteTable.CONSTANTS.length; i++) {
+            words[base + state.length + i] = SmpRewriteTable.CONSTANTS[i];
+        }
+
+        SmpProcessor processor = new SmpProcessor(new SmpProgram(words));
+        processor.setTrace(false);
+        processor.execute();
+        runs++;
+
+        if (processor.getFault() != null) {
+            return new int[] { 1 };
+        }
+
+        int[] result = new int[state.length + 1];
+        result[1] = processor.getAccumulator();
+
+        for (int c = 1; c < state.length; c++) {
+            result[c + 1] = processor.getMemory().getItem(base + c);
+        }
+
+        return result;
+    }
+
+    /**
+     * Check if the variables of a sequence first appear in the order a, b, c
+     *
+     * @param sequence The sequence
+     * @return boolean
+     */
+    private static boolean isCanonical(int[] sequence) {
+        int next = 0;
+
+        for (int instruction : sequence) {
+            int operand = instruction % 100;
+
+            if (operand < SmpRewriteTable.VARIABLES.length && operand > next) {
+                return false;
+            }
+
+            if (operand < SmpRewriteTable.VARIABLES.length && operand == next) {
+                next++;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if a shorter part of the sequence has a replacement
+     *
+     * @param table Replacements of the shorter sequences
+     * @param sequence The sequence
+     * @return boolean
+     */
+    private static boolean hasRewrittenPart(SmpRewriteTable table, int[] sequence) {
+        for (int length = 1; length < sequence.length; length++) {
+            for (int start = 0; start + length <= sequence.length; start++) {
+                int[] part = Arrays.copyOfRange(sequence, start, start + length);
+
+                if (table.get(toString(rename(part))) != null) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Rename the variables of a sequence to a, b, c in the order they first appear
+     *
+     * @param sequence The sequence
+     * @return canonical sequence
+     */
+    private static int[] rename(int[] sequence) {
+        int[] names = new int[SmpRewriteTable.VARIABLES.length];
+        int[] renamed = new int[sequence.length];
+        int next = 0;
+
+        Arrays.fill(names, -1);
+
+        for (int i = 0; i < sequence.length; i++) {
+            int operand = sequence[i] % 100;
+
+            if (operand < names.length && names[operand] == -1) {
+                names[operand] = next++;
+            }
+
+            renamed[i] = sequence[i] - operand + (operand < names.length ? names[operand] : operand);
+        }
+
+        return renamed;
+    }
+
+    /**
+     * Check if the candidate only uses the variables of the sequence
+     *
+     * @param sequence The sequence
+     * @param candidate The candidate
+     * @return boolean
+     */
+    private static boolean hasVariablesOf(int[] sequence, int[] candidate) {
+        for (int instruction : candidate) {
+            int operand = instruction % 100;
+
+            if (operand < SmpRewriteTable.VARIABLES.length && !hasOperand(sequence, operand)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the number of constants of the candidate that the sequence doesn't have
+     *
+     * @param sequence The sequence
+     * @param candidate The candidate
+     * @return int
+     */
+    private static int getNewConstants(int[] sequence, int[] candidate) {
+        int count = 0;
+
+        for (int c = 0; c < SmpRewriteTable.CONSTANTS.length; c++) {
+            int operand = SmpRewriteTable.VARIABLES.length + c;
+
+            if (hasOperand(candidate, operand) && !hasOperand(sequence, operand)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Check if an instruction of the sequence has the operand
+     *
+     * @param sequence The sequence
+     * @param operand The operand
+     * @return boolean
+     */
+    private static boolean hasOperand(int[] sequence, int operand) {
+        for (int instruction : sequence) {
+            if (instruction % 100 == operand) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the text of a sequence (e.g STORE a; LOAD a)
+     *
+     * @param sequence The sequence
+     * @return text
+     */
+    private static String toString(int[] sequence) {
+        StringBuilder text = new StringBuilder();
+
+        for (int instruction : sequence) {
+            int operand = instruction % 100;
+            String name = operand < SmpRewriteTable.VARIABLES.length ? SmpRewriteTable.VARIABLES[operand]
+                    : "#" + SmpRewriteTable.CONSTANTS[operand - SmpRewriteTable.VARIABLES.length];
+
+            text.append(text.length() > 0 ? "; " : "").append(SmpRewriteTable.getMnemonic(instruction / 100)).append(' ').append(name);
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Main program
+     *
+     * @param args Options
+     */
+    public static void main(String[] args) {
+        SmpSuperoptimizer superoptimizer = new SmpSuperoptimizer();
+        String output = SmpRewriteTable.DEFAULT_TABLE;
+
+        // Parse the options
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--length": superoptimizer.setMaxLength(Math.max(1, Integer.parseInt(args[i + 1]))); break;
+                case "-o": output = args[i + 1]; break;
+                default:
+                    SmpCompiler.printError("unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        long time = System.currentTimeMillis();
+        SmpRewriteTable table = superoptimizer.generate();
+
+        try {
+            table.write(Paths.get(output));
+        } catch (IOException e) {
+            SmpCompiler.printError("can't write " + output + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.out.println("Wrote " + table.size() + " rewrites to " + output + " (" + superoptimizer.getRuns() + " runs, "
+                + (System.currentTimeMillis() - time) + " ms)");
+    }
+}
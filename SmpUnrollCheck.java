@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Regression check of the loop unroller at the edges of the word range
+ *
+ * Compiles counted loops that count up, count down, step by more than one
+ * and compare with a variable limit, with and without unrolling, and starts
+ * them with values next to Integer.MIN_VALUE and Integer.MAX_VALUE, where the
+ * test value of a guard plus the steps of the next iterations wraps around.
+ * Only loops with constant start values are unrolled, so the values are
+ * declared and compile-time evaluation is off. Every unrolled program must
+ * print what the program without unrolling prints. A run that doesn't halt
+ * within the cycle limit without unrolling (e.g a loop of 2^31 iterations)
+ * is skipped.
+ *
+ * Usage: java SmpUnrollCheck [--cycles n]
+ */
+public class SmpUnrollCheck {
+    // Loops from the start value N to the limit L
+    private static final String[] LOOPS = {
+        "WHILE N < 0\n    S = S + 3\n    N = N + 1\nEND\n",
+        "WHILE N <= 0\n    S = S + 3\n    N = N + 2\nEND\n",
+        "WHILE N > 0\n    S = S + 3\n    N = N - 1\nEND\n",
+        "WHILE N >= 0\n    S = S + 3\n    N = N - 3\nEND\n",
+        "WHILE N < L\n    S = S + 3\n    N = N + 3\nEND\n",
+        "WHILE N >= L\n    S = S + N\n    N = N - 2\nEND\n",
+        "@loop\nLOAD N\nBRANCHNEG @done\nBRANCHZERO @done\nS = S + 1\nN = N - 3\nBRANCH @loop\n@done\n",
+        "@loop\nLOAD N\nSUBTRACT L\nBRANCHNEG @done\nS = S + 1\nN = N - 1\nBRANCH @loop\n@done\n",
+    };
+    // Values of N and L
+    private static final int[] VALUES = {
+        Integer.MIN_VALUE, Integer.MIN_VALUE + 1, Integer.MIN_VALUE + 2, -5, 0, 5,
+        Integer.MAX_VALUE - 2, Integer.MAX_VALUE - 1, Integer.MAX_VALUE,
+    };
+
+    // Maximum number of instructions of a run
+    private long cycles = 200_000;
+
+    /**
+     * Compare every loop, value pair and unroll factor with the loop that isn't unrolled
+     *
+     * @return number of mismatches
+     * @throws SmpCompileException If a loop doesn't compile
+     */
+    public int check() throws SmpCompileException {
+        int runs = 0;
+        int unrolled = 0;
+        int mismatches = 0;
+
+        for (String loop : LOOPS) {
+            for (int n : VALUES) {
+                for (int l : VALUES) {
+                    String source = "N = " + n + "\nL = " + l + "\nS = 0\n" + loop + "WRITE S\nWRITE N\n";
+                    SmpProgram original = compile(source, 1);
+                    SmpRunResult expected = SmpRunCache.execute(original, List.of(), cycles);
+
+                    // Too long to compare
+                    if (!expected.halted) {
+                        continue;
+                    }
+
+                    for (int factor = 2; factor <= 4; factor++) {
+                        SmpProgram program = compile(source, factor);
+                        SmpRunResult actual = SmpRunCache.execute(program, List.of(), cycles);
+                        runs++;
+
+                        if (program.size() != original.size()) {
+                            unrolled++;
+                        }
+
+                        if (!actual.halted || !actual.output.equals(expected.output)) {
+                            System.out.printf("mismatch: factor %d, N = %d, L = %d, expected %s, got %s%n%s", factor, n, l,
+                                    expected.output.trim().replace('\n', ' '), actual.halted ? actual.output.trim().replace('\n', ' ') : "no halt", loop);
+                            mismatches++;
+                        }
+                    }
+                }
+            }
+        }
+
+        System.out.printf("%d runs, %d unrolled, %d mismatches%n", runs, unrolled, mismatches);
+        return mismatches;
+    }
+
+    /**
+     * Compile a program with an unroll factor
+     *
+     * @param source The source
+     * @param factor Iterations of an unrolled body, 1 to not unroll
+     * @return program image
+     * @throws SmpCompileException If the program doesn't compile
+     */
+    private static SmpProgram compile(String source, int factor) throws SmpCompileException {
+        SmpCompiler compiler = new SmpCompiler();
+        compiler.setQuiet(true);
+        compiler.setUnrollFactor(factor);
+        compiler.setEvaluationLimit(0);
+
+        try {
+            compiler.load(new StringReader(source), "<loop>");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return compiler.compileProgram();
+    }
+
+    /**
+     * Main program, exits with 1 if an unrolled loop prints something else
+     *
+     * @param args Options
+     */
+    public static void main(String[] args) {
+        SmpUnrollCheck check = new SmpUnrollCheck();
+
+        // Parse the options
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--cycles": check.cycles = Math.max(1, Long.parseLong(args[i + 1])); break;
+                default:
+                    SmpCompiler.printError("unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        try {
+            if (check.check() > 0) {
+                System.exit(1);
+            }
+        } catch (SmpCompileException e) {
+            SmpCompiler.printError("loop doesn't compile: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * A variable class with address
+ */
+class SmpVariable {
+    public int address;
+    public String name;
+    public String value;
+    public int line = -1;
+    public boolean imported = false;
+    // Initial values of the elements of an array, null if it's not an array
+    public String[] elements = null;
+
+    public SmpVariable(int address, String name, String value) {
+        this.address = address;
+        this.name = name;
+        this.value = value;
+    }
+
+    // Number of data cells, one per element of an array
+    public int getSize() {
+        return elements == null ? 1 : elements.length;
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Watch mode that recompiles a source file every time it's saved and runs it quietly
+ *
+ * The compiler of the file is kept between saves, so an edit of a few
+ * statements is processed again and linked with the statements of the
+ * last compilation instead of compiling the whole file. Edits of branch
+ * names, blocks or variable names compile the whole file.
+ *
+ * ------------ Usage: -------------
+ * java SmpWatcher prog.smp [--input file] [--cycles n]
+ * ------------------------------------
+ */
+public class SmpWatcher {
+    // Default maximum number of instructions of a run
+    public static final long DEFAULT_CYCLE_LIMIT = 10_000_000;
+    // Time an editor is given to finish saving, in milliseconds
+    private static final long SETTLE_TIME = 50;
+
+    // Watched source file
+    private final Path source;
+    // Compiler holding the last compilation
+    private final SmpCompiler compiler = new SmpCompiler();
+    // Input lines of the READ instruction
+    private List<String> input = new ArrayList<String>();
+    // Maximum number of instructions of a run
+    private long cycleLimit = DEFAULT_CYCLE_LIMIT;
+    // Output of the compilation reports and the runs
+    private PrintStream out = System.out;
+    // Source text of the last build, null before the first one
+    private String built = null;
+
+    /**
+     * Initialize the watcher of a source file
+     *
+     * @param filename Input filename
+     * @throws IOException If file doesn't exist or can't be read
+     * @throws SmpCompileException If the file is not a .smp file
+     */
+    public SmpWatcher(String filename) throws IOException, SmpCompileException {
+        // Check the file and name the compilation after it
+        compiler.load(filename);
+        this.source = Paths.get(filename).toAbsolutePath();
+    }
+
+    /**
+     * Set the input lines of the READ instruction
+     *
+     * @param input The input lines
+     */
+    public void setInput(List<String> input) {
+        this.input = input;
+    }
+
+    /**
+     * Set the maximum number of instructions of a run
+     *
+     * @param cycleLimit The limit, 0 for no limit
+     */
+    public void setCycleLimit(long cycleLimit) {
+        this.cycleLimit = cycleLimit;
+    }
+
+    /**
+     * Set the output of the compilation reports and the runs
+     *
+     * @param out The output
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Build and run the source, then again every time it changes
+     *
+     * @throws IOException If the directory of the source can't be watched
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public void watch() throws IOException, InterruptedException {
+        try (WatchService service = source.getFileSystem().newWatchService()) {
+            // Editors may replace the file instead of writing it
+            source.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            build();
+
+            while (true) {
+                WatchKey key = service.take();
+
+                // Let the editor finish, so a save is built once
+                Thread.sleep(SETTLE_TIME);
+                boolean changed = false;
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // Lost events may include the source
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || source.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+
+                // Stop if the directory is gone
+                if (!key.reset()) {
+                    SmpCompiler.printError("can't watch " + source.getParent() + " anymore");
+                    return;
+                }
+
+                if (changed) {
+                    build();
+                }
+            }
+        }
+    }
+
+    /**
+     * Recompile the source if it changed since the last build and run it
+     *
+     * @return true if the source was compiled, false if it didn't change or has an error
+     * @throws IOException If the source can't be read
+     */
+    public boolean build() throws IOException {
+        // The file may be missing while an editor replaces it
+        if (!Files.exists(source)) {
+            return false;
+        }
+
+        String text = Files.readString(source);
+
+        // Skip the saves that didn't change anything
+        if (text.equals(built)) {
+            return false;
+        }
+
+        built = text;
+        long started = System.nanoTime();
+        SmpProgram program;
+
+        try {
+            program = compiler.recompile(new StringReader(text));
+        } catch (SmpCompileException e) {
+            SmpCompiler.printError(e.getMessage());
+            return false;
+        }
+
+        // Report the compilation
+        double time = (System.nanoTime() - started) / 1e6;
+        out.printf("Compiled %d line(s) in %.1f ms (%d words)%n", compiler.getRecompiledLines(), time, program.size());
+        run(program);
+
+        return true;
+    }
+
+    /**
+     * Run the program quietly and print its output
+     *
+     * @param program Program image
+     */
+    private void run(SmpProgram program) {
+        // Check if the program fits
+        if (program.size() > SmpMemory.DEFAULT_SIZE) {
+            out.println("Not run, the program doesn't fit in memory");
+            return;
+        }
+
+        SmpRunResult result = SmpRunCache.execute(program, input, cycleLimit);
+        out.print(result.output);
+        out.flush();
+
+        // Report run-time faults
+        if (result.fault != null) {
+            SmpCompiler.printError(result.fault);
+            return;
+        }
+
+        // Report runaway programs
+        if (!result.halted && cycleLimit > 0 && result.cycles >= cycleLimit) {
+            SmpCompiler.printError("cycle limit of " + cycleLimit + " instructions exceeded");
+        }
+    }
+
+    /**
+     * Main program
+     *
+     * @param args Input filename and options
+     * @throws Exception If an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        // Check if args have values
+        if (args.length == 0) {
+            SmpCompiler.printError("no input file specified.");
+            System.exit(1);
+        }
+
+        List<String> options = Arrays.asList(args);
+        SmpWatcher watcher;
+
+        try {
+            watcher = new SmpWatcher(args[0]);
+        } catch (SmpCompileException e) {
+            SmpCompiler.printError(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        // Read the input lines of the READ instruction from a file
+        int option = options.indexOf("--input");
+
+        if (option > 0 && option + 1 < args.length) {
+            watcher.setInput(Files.readAllLines(Paths.get(args[option + 1])));
+        }
+
+        // Set the maximum number of instructions of a run
+        option = options.indexOf("--cycles");
+
+        if (option > 0 && option + 1 < args.length) {
+            watcher.setCycleLimit(Long.parseLong(args[option + 1]));
+        }
+
+        watcher.watch();
+    }
+}